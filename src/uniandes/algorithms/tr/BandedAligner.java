@@ -0,0 +1,118 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Edit distance aligner for two segments of the same length, used to check
+ * each copy when a tandem repeat is extended. Only the cells at most band
+ * positions away from the diagonal are computed, on byte arrays and a
+ * scratch matrix that is reused between calls, so no object is allocated per
+ * allignment.
+ *
+ * The traceback makes the same choices as
+ * ngsep.sequences.SimpleEditDistanceMeasure (diagonal first, then gap in the
+ * second segment, then gap in the first one). If the distance returned is
+ * less than the band it is exact, and the allignment length is the one of
+ * the full allignment.
+ */
+public class BandedAligner {
+
+	// value of the cells outside the band
+	private static final int OUTSIDE = Integer.MAX_VALUE / 4;
+
+	// scores of the band, row i starts at i * 2 * band
+	private int[] scores = new int[0];
+
+	// number of columns of the last allignment
+	private int alignmentLength;
+
+	/**
+	 * Alligns a[aStart, aStart + length) with b[bStart, bStart + length)
+	 *
+	 * @param a
+	 * @param aStart
+	 * @param b
+	 * @param bStart
+	 * @param length
+	 *            length of both segments
+	 * @param band
+	 *            maximum distance from the diagonal, at least 1
+	 * @return number of columns of the allignment that are a mismatch or a
+	 *         gap, which is the edit distance if it is less than band
+	 */
+	public int align(byte[] a, int aStart, byte[] b, int bStart, int length, int band) {
+		int width = 2 * band + 1;
+		int size = (length + 1) * width;
+		if (scores.length < size) {
+			scores = new int[size];
+		}
+		int[] m = scores;
+		// cell (i, j) is stored at i * 2 * band + j + band
+		for (int i = 0; i <= length; i++) {
+			int jFrom = Math.max(0, i - band);
+			int jTo = Math.min(length, i + band);
+			int idx = i * 2 * band + jFrom + band;
+			for (int j = jFrom; j <= jTo; j++, idx++) {
+				int v;
+				if (i == 0) {
+					v = j;
+				} else if (j == 0) {
+					v = i;
+				} else {
+					v = m[idx - width];
+					if (a[aStart + i - 1] != b[bStart + j - 1]) {
+						v++;
+					}
+					if (j - i > -band && m[idx - 1] + 1 < v) {
+						v = m[idx - 1] + 1;
+					}
+					if (j - i < band && m[idx - 2 * band] + 1 < v) {
+						v = m[idx - 2 * band] + 1;
+					}
+				}
+				m[idx] = v;
+			}
+		}
+		// traceback counting mismatches and gaps
+		int i = length;
+		int j = length;
+		int distance = 0;
+		int columns = 0;
+		while (i > 0 || j > 0) {
+			columns++;
+			if (i == 0) {
+				j--;
+				distance++;
+			} else if (j == 0) {
+				i--;
+				distance++;
+			} else {
+				int idx = i * 2 * band + j + band;
+				int mismatch = a[aStart + i - 1] != b[bStart + j - 1] ? 1 : 0;
+				int diagonal = m[idx - width] + mismatch;
+				int left = j - i > -band ? m[idx - 1] + 1 : OUTSIDE;
+				int up = j - i < band ? m[idx - 2 * band] + 1 : OUTSIDE;
+				int min = Math.min(up, Math.min(left, diagonal));
+				if (diagonal == min) {
+					i--;
+					j--;
+					distance += mismatch;
+				} else if (up == min) {
+					i--;
+					distance++;
+				} else {
+					j--;
+					distance++;
+				}
+			}
+		}
+		alignmentLength = columns;
+		return distance;
+	}
+
+	/**
+	 * @return number of columns of the last allignment
+	 */
+	public int getAlignmentLength() {
+		return alignmentLength;
+	}
+
+}
@@ -0,0 +1,77 @@
+package uniandes.algorithms.tr;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the reported tandem repeats in BED format, one line per repeat with
+ * the coordinates (0-based, end not included), the pattern as name, the
+ * alignment score limited to 1000 as score, no strand, and three extra
+ * columns: period, number of copies and alignment score. Sequences and
+ * allignments are not written
+ */
+public class BedTandemRepeatWriter implements TandemRepeatWriter {
+
+	// extension of BED files
+	public static final String EXTENSION = ".bed";
+
+	// largest score allowed by the format
+	private static final int MAX_SCORE = 1000;
+
+	// size of the output buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private Writer out;
+
+	// buffer reused to format each line
+	private StringBuilder line = new StringBuilder();
+
+	/**
+	 * Creates the output file, replacing it if it exists
+	 * 
+	 * @param filename
+	 * @throws IOException
+	 */
+	public BedTandemRepeatWriter(String filename) throws IOException {
+		this(new FileOutputStream(filename));
+	}
+
+	/**
+	 * @param out
+	 *            stream receiving the output, it is closed with this writer
+	 */
+	public BedTandemRepeatWriter(OutputStream out) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	@Override
+	public void write(ReportedTandemRepeat repeat) throws IOException {
+		line.setLength(0);
+		line.append(repeat.getSequenceName()).append('\t');
+		line.append(repeat.getFirst()).append('\t');
+		line.append(repeat.getLast() + 1).append('\t');
+		line.append(repeat.getPattern()).append('\t');
+		line.append(Math.min(repeat.getAlignmentScore(), MAX_SCORE)).append('\t');
+		line.append(".\t");
+		line.append(repeat.getPeriod()).append('\t');
+		line.append(repeat.getNumCopies()).append('\t');
+		line.append(repeat.getAlignmentScore()).append('\n');
+		out.append(line);
+	}
+
+	@Override
+	public boolean writesAlignments() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
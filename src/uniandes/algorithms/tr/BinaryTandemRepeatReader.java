@@ -0,0 +1,185 @@
+package uniandes.algorithms.tr;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads a file written by BinaryTandemRepeatWriter. The dictionary of
+ * patterns and the index of the sequences are loaded when the file is opened,
+ * and the records stay in the memory mapped file. The repeats overlapping a
+ * region are found with a binary search over the records of its sequence.
+ * Repeats read have no sequence, ideal sequence or allignment. The reader can
+ * be shared by several threads
+ */
+public class BinaryTandemRepeatReader implements Closeable {
+
+	private RandomAccessFile file;
+
+	// id of the pattern, pattern
+	private String[] patterns;
+
+	// names of the sequences in the order of the file
+	private List<String> sequenceNames = new ArrayList<String>();
+
+	// name of the sequence, its records
+	private HashMap<String, ByteBuffer> records = new HashMap<String, ByteBuffer>();
+
+	/**
+	 * Opens a binary file and loads its dictionary and index
+	 *
+	 * @param filename
+	 * @throws IOException
+	 *             if the file is not a binary file of tandem repeats
+	 */
+	public BinaryTandemRepeatReader(String filename) throws IOException {
+		file = new RandomAccessFile(filename, "r");
+		try {
+			long length = file.length();
+			if (length < 8 + BinaryTandemRepeatWriter.TRAILER_SIZE || file.readInt() != BinaryTandemRepeatWriter.MAGIC
+					|| file.readInt() != BinaryTandemRepeatWriter.VERSION) {
+				throw new IOException("Invalid tandem repeats file: " + filename);
+			}
+			file.seek(length - BinaryTandemRepeatWriter.TRAILER_SIZE);
+			long dictionaryOffset = file.readLong();
+			long indexOffset = file.readLong();
+			if (file.readInt() != BinaryTandemRepeatWriter.MAGIC) {
+				throw new IOException("Incomplete tandem repeats file: " + filename);
+			}
+			FileChannel channel = file.getChannel();
+			channel.position(dictionaryOffset);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			patterns = new String[in.readInt()];
+			for (int i = 0; i < patterns.length; i++) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				patterns[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+			}
+			channel.position(indexOffset);
+			in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			int numSequences = in.readInt();
+			for (int i = 0; i < numSequences; i++) {
+				String name = in.readUTF();
+				long offset = in.readLong();
+				int count = in.readInt();
+				sequenceNames.add(name);
+				records.put(name, channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						(long) BinaryTandemRepeatWriter.RECORD_SIZE * count));
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return names of the sequences with repeats, in the order they were
+	 *         written
+	 */
+	public List<String> getSequenceNames() {
+		return sequenceNames;
+	}
+
+	/**
+	 * @param sequenceName
+	 * @return number of repeats of the sequence
+	 */
+	public int getNumRepeats(String sequenceName) {
+		ByteBuffer buffer = records.get(sequenceName);
+		return buffer == null ? 0 : buffer.capacity() / BinaryTandemRepeatWriter.RECORD_SIZE;
+	}
+
+	/**
+	 * @param sequenceName
+	 * @return repeats of the sequence sorted by first index
+	 */
+	public List<ReportedTandemRepeat> getRepeats(String sequenceName) {
+		return query(sequenceName, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Finds the repeats that overlap a region
+	 *
+	 * @param sequenceName
+	 * @param from
+	 *            first index of the region
+	 * @param to
+	 *            last index of the region, inclusive
+	 * @return repeats overlapping the region sorted by first index
+	 */
+	public List<ReportedTandemRepeat> query(String sequenceName, int from, int to) {
+		List<ReportedTandemRepeat> answer = new ArrayList<ReportedTandemRepeat>();
+		ByteBuffer buffer = records.get(sequenceName);
+		if (buffer == null) {
+			return answer;
+		}
+		int count = buffer.capacity() / BinaryTandemRepeatWriter.RECORD_SIZE;
+		// first record whose largest last index so far reaches the region,
+		// records before it end before the region
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (buffer.getInt(mid * BinaryTandemRepeatWriter.RECORD_SIZE + 12) < from) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		for (int r = low; r < count; r++) {
+			int position = r * BinaryTandemRepeatWriter.RECORD_SIZE;
+			int first = buffer.getInt(position + 4);
+			if (first > to) {
+				break;
+			}
+			int last = buffer.getInt(position + 8);
+			if (last < from) {
+				continue;
+			}
+			int period = buffer.getInt(position + 16);
+			double numCopies = buffer.getDouble(position + 20);
+			int totalSize = buffer.getInt(position + 28);
+			int alignmentScore = buffer.getInt(position + 32);
+			String pattern = patterns[buffer.getInt(position + 36)];
+			answer.add(new ReportedTandemRepeat(sequenceName, first, last, period, numCopies, totalSize, pattern, null,
+					null, null, alignmentScore));
+		}
+		return answer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Prints the repeats overlapping a region. Arguments: binary file,
+	 * sequence name, first and last index of the region (optional, the whole
+	 * sequence by default)
+	 */
+	public static void main(String[] args) throws Exception {
+		try (BinaryTandemRepeatReader reader = new BinaryTandemRepeatReader(args[0])) {
+			int from = Integer.MIN_VALUE;
+			int to = Integer.MAX_VALUE;
+			if (args.length > 3) {
+				from = Integer.parseInt(args[2]);
+				to = Integer.parseInt(args[3]);
+			}
+			for (ReportedTandemRepeat repeat : reader.query(args[1], from, to)) {
+				System.out.println(repeat.getSequenceName() + " " + repeat.getFirst() + " " + repeat.getLast() + " "
+						+ repeat.getPeriod() + " " + repeat.getNumCopies() + " " + repeat.getTotalSize() + " "
+						+ repeat.getPattern() + " " + repeat.getAlignmentScore());
+			}
+		}
+	}
+
+}
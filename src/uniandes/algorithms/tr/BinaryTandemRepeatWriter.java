@@ -0,0 +1,188 @@
+package uniandes.algorithms.tr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Writes the reported tandem repeats in a compact binary file that can be
+ * queried by region with BinaryTandemRepeatReader. Only the coordinates, the
+ * period, the number of copies, the total size, the alignment score and the
+ * pattern are kept; the sequence, the ideal sequence and the allignment are
+ * not written. Patterns are stored once in a dictionary.
+ *
+ * A binary file has a header (magic number, version), the records of each
+ * sequence sorted by first index, the pattern dictionary, the index of the
+ * sequences (name, offset and number of records) and a trailer with the
+ * offsets of the dictionary and the index. Each record has the sequence id,
+ * first, last, the largest last index of the records up to it (so that
+ * records overlapping a region can be found with a binary search), period,
+ * number of copies, total size, alignment score and pattern id. The repeats
+ * of each sequence must be written together
+ */
+public class BinaryTandemRepeatWriter implements TandemRepeatWriter {
+
+	// extension of binary files
+	public static final String EXTENSION = ".trb";
+
+	// first int of a binary file, and last int of its trailer
+	static final int MAGIC = 0x54524258;
+
+	static final int VERSION = 1;
+
+	// bytes of a record
+	static final int RECORD_SIZE = 40;
+
+	// bytes of the trailer: dictionary offset, index offset, magic number
+	static final int TRAILER_SIZE = 20;
+
+	// size of the output buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private DataOutputStream out;
+
+	// bytes written so far
+	private long offset;
+
+	// pattern, id in the dictionary
+	private HashMap<String, Integer> patternIds = new HashMap<String, Integer>();
+	private List<String> patterns = new ArrayList<String>();
+
+	// index of the sequences already written
+	private List<String> sequenceNames = new ArrayList<String>();
+	private List<Long> sequenceOffsets = new ArrayList<Long>();
+	private List<Integer> sequenceCounts = new ArrayList<Integer>();
+	private HashSet<String> writtenNames = new HashSet<String>();
+
+	// sequence whose repeats are being received and its records, written
+	// when the next sequence starts
+	private String currentName;
+	private List<Record> currentRecords = new ArrayList<Record>();
+
+	/**
+	 * Fields of one record kept until its sequence is finished
+	 */
+	private static class Record {
+		private int first;
+		private int last;
+		private int period;
+		private double numCopies;
+		private int totalSize;
+		private int alignmentScore;
+		private int patternId;
+	}
+
+	/**
+	 * Creates the output file, replacing it if it exists, and writes the
+	 * header
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public BinaryTandemRepeatWriter(String filename) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		offset = 8;
+	}
+
+	@Override
+	public void write(ReportedTandemRepeat repeat) throws IOException {
+		String name = repeat.getSequenceName();
+		if (!name.equals(currentName)) {
+			finishSequence();
+			if (!writtenNames.add(name)) {
+				throw new IOException("Repeats of sequence " + name + " are not written together");
+			}
+			currentName = name;
+		}
+		Integer patternId = patternIds.get(repeat.getPattern());
+		if (patternId == null) {
+			patternId = patterns.size();
+			patterns.add(repeat.getPattern());
+			patternIds.put(repeat.getPattern(), patternId);
+		}
+		Record record = new Record();
+		record.first = repeat.getFirst();
+		record.last = repeat.getLast();
+		record.period = repeat.getPeriod();
+		record.numCopies = repeat.getNumCopies();
+		record.totalSize = repeat.getTotalSize();
+		record.alignmentScore = repeat.getAlignmentScore();
+		record.patternId = patternId;
+		currentRecords.add(record);
+	}
+
+	/**
+	 * Writes the records of the current sequence sorted by first index
+	 *
+	 * @throws IOException
+	 */
+	private void finishSequence() throws IOException {
+		if (currentName == null) {
+			return;
+		}
+		currentRecords.sort((r1, r2) -> r1.first != r2.first ? Integer.compare(r1.first, r2.first)
+				: Integer.compare(r1.last, r2.last));
+		int sequenceId = sequenceNames.size();
+		sequenceNames.add(currentName);
+		sequenceOffsets.add(offset);
+		sequenceCounts.add(currentRecords.size());
+		int maxLast = Integer.MIN_VALUE;
+		for (Record record : currentRecords) {
+			maxLast = Math.max(maxLast, record.last);
+			out.writeInt(sequenceId);
+			out.writeInt(record.first);
+			out.writeInt(record.last);
+			out.writeInt(maxLast);
+			out.writeInt(record.period);
+			out.writeDouble(record.numCopies);
+			out.writeInt(record.totalSize);
+			out.writeInt(record.alignmentScore);
+			out.writeInt(record.patternId);
+		}
+		offset += (long) RECORD_SIZE * currentRecords.size();
+		currentRecords.clear();
+		currentName = null;
+	}
+
+	@Override
+	public boolean writesAlignments() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finishSequence();
+			long dictionaryOffset = offset;
+			out.writeInt(patterns.size());
+			for (String pattern : patterns) {
+				byte[] bytes = pattern.getBytes(StandardCharsets.ISO_8859_1);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				offset += 4 + bytes.length;
+			}
+			offset += 4;
+			long indexOffset = offset;
+			out.writeInt(sequenceNames.size());
+			for (int i = 0; i < sequenceNames.size(); i++) {
+				out.writeUTF(sequenceNames.get(i));
+				out.writeLong(sequenceOffsets.get(i));
+				out.writeInt(sequenceCounts.get(i));
+			}
+			out.writeLong(dictionaryOffset);
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Sequence stored as one byte per character
+ */
+public class ByteArraySequence implements NucleotideSequence {
+
+	private byte[] characters;
+
+	/**
+	 * @param characters
+	 *            upper case characters of the sequence, the array is not
+	 *            copied
+	 */
+	public ByteArraySequence(byte[] characters) {
+		this.characters = characters;
+	}
+
+	@Override
+	public int length() {
+		return characters.length;
+	}
+
+	@Override
+	public void getBytes(int from, int to, byte[] dest, int destStart) {
+		System.arraycopy(characters, from, dest, destStart, to - from);
+	}
+
+}
@@ -0,0 +1,221 @@
+package uniandes.algorithms.tr;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Candidates found by a scan, stored as parallel int arrays instead of one
+ * object per candidate. Candidates are kept in one bucket per apparent size,
+ * and each bucket has the first index, the last index and the sum of heads
+ * of its candidates; the apparent size is the one of the bucket and the
+ * pattern beginning is last - apparent size + 1. Candidates must be added in
+ * increasing order of last index, so each bucket is sorted by last index and
+ * can be refined with one backward pass
+ */
+public class CandidateBuffer implements CandidateConsumer {
+
+	// initial capacity of a bucket
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int maxPatternSize;
+
+	// apparent size s, first index, last index and sum of heads of each
+	// candidate of the bucket
+	private int[][] firsts;
+	private int[][] lasts;
+	private int[][] sumsOfHeads;
+
+	// apparent size s, number of candidates of the bucket
+	private int[] sizes;
+
+	/**
+	 * @param maxPatternSize
+	 *            largest apparent size of the candidates
+	 */
+	public CandidateBuffer(int maxPatternSize) {
+		this.maxPatternSize = maxPatternSize;
+		this.firsts = new int[maxPatternSize + 1][];
+		this.lasts = new int[maxPatternSize + 1][];
+		this.sumsOfHeads = new int[maxPatternSize + 1][];
+		this.sizes = new int[maxPatternSize + 1];
+	}
+
+	/**
+	 * Adds a candidate, ignoring the tuple size that found it
+	 */
+	@Override
+	public void accept(int first, int last, int apparentSize, int sumOfHeads, int tupleIndex) {
+		add(first, last, apparentSize, sumOfHeads);
+	}
+
+	/**
+	 * Adds a candidate to the bucket of its apparent size
+	 *
+	 * @param first
+	 * @param last
+	 *            must not be less than the last index of the candidates of
+	 *            the bucket
+	 * @param apparentSize
+	 *            between 1 and maxPatternSize
+	 * @param sumOfHeads
+	 */
+	public void add(int first, int last, int apparentSize, int sumOfHeads) {
+		int n = sizes[apparentSize];
+		if (lasts[apparentSize] == null) {
+			firsts[apparentSize] = new int[INITIAL_CAPACITY];
+			lasts[apparentSize] = new int[INITIAL_CAPACITY];
+			sumsOfHeads[apparentSize] = new int[INITIAL_CAPACITY];
+		} else if (n == lasts[apparentSize].length) {
+			firsts[apparentSize] = Arrays.copyOf(firsts[apparentSize], 2 * n);
+			lasts[apparentSize] = Arrays.copyOf(lasts[apparentSize], 2 * n);
+			sumsOfHeads[apparentSize] = Arrays.copyOf(sumsOfHeads[apparentSize], 2 * n);
+		}
+		firsts[apparentSize][n] = first;
+		lasts[apparentSize][n] = last;
+		sumsOfHeads[apparentSize][n] = sumOfHeads;
+		sizes[apparentSize] = n + 1;
+	}
+
+	/**
+	 * @return largest apparent size of the candidates
+	 */
+	public int getMaxPatternSize() {
+		return maxPatternSize;
+	}
+
+	/**
+	 * @param apparentSize
+	 * @return number of candidates of the apparent size
+	 */
+	public int size(int apparentSize) {
+		return sizes[apparentSize];
+	}
+
+	/**
+	 * @return number of candidates of all the apparent sizes
+	 */
+	public int size() {
+		int total = 0;
+		for (int s = 1; s <= maxPatternSize; s++) {
+			total += sizes[s];
+		}
+		return total;
+	}
+
+	/**
+	 * @param apparentSize
+	 * @param i
+	 *            index of the candidate in its bucket, sorted by last index
+	 * @return first index of the candidate
+	 */
+	public int getFirst(int apparentSize, int i) {
+		return firsts[apparentSize][i];
+	}
+
+	/**
+	 * @param apparentSize
+	 * @param i
+	 *            index of the candidate in its bucket, sorted by last index
+	 * @return last index of the candidate
+	 */
+	public int getLast(int apparentSize, int i) {
+		return lasts[apparentSize][i];
+	}
+
+	/**
+	 * @param apparentSize
+	 * @param i
+	 *            index of the candidate in its bucket, sorted by last index
+	 * @return sum of heads of the candidate
+	 */
+	public int getSumOfHeads(int apparentSize, int i) {
+		return sumsOfHeads[apparentSize][i];
+	}
+
+	/**
+	 * Removes the candidates of an apparent size, keeping the arrays of the
+	 * bucket for the next ones
+	 *
+	 * @param apparentSize
+	 */
+	public void clear(int apparentSize) {
+		sizes[apparentSize] = 0;
+	}
+
+	/**
+	 * Removes the candidates of all the apparent sizes
+	 */
+	public void clear() {
+		Arrays.fill(sizes, 0);
+	}
+
+	/**
+	 * Removes redundant candidates of the same apparent size, going backwards
+	 * over its bucket. Each chain of candidates, from the largest last index,
+	 * becomes one candidate with its number of copies: candidates less than
+	 * apSize positions before the last one of the chain are redundant, and
+	 * the chain goes on if the next one is at most apSize + maxDelta
+	 * positions before it. Only the first candidate added at each last index
+	 * is used. The bucket is cleared
+	 *
+	 * @param apSize
+	 *            apparent size of the candidates
+	 * @param maxDelta
+	 *            maximum size at which there could be a match
+	 * @param answer
+	 *            receives the refined candidates, from the largest last index
+	 */
+	public void refine(int apSize, int maxDelta, List<TandemRepeat> answer) {
+		int[] bucketLasts = lasts[apSize];
+		int i = sizes[apSize] - 1;
+		while (i >= 0) {
+			int largest = bucketLasts[i];
+			i = firstWithLast(bucketLasts, i);
+			TandemRepeat finalC = new TandemRepeat(firsts[apSize][i], largest, apSize, sumsOfHeads[apSize][i]);
+			int numCopies = 1;
+			int lowerborder = largest - apSize - maxDelta;
+			int upperborder = largest - apSize;
+			// default beginning, one copy before the pattern
+			int beginning = largest - 2 * apSize + 1;
+			i--;
+			while (i >= 0) {
+				int next = bucketLasts[i];
+				if (next > upperborder) {
+					// this candidate is redundant if it is above the border
+					i--;
+				} else if (next >= lowerborder) {
+					// found another occurrence, the chain goes on from it
+					beginning = next - 2 * apSize + 1;
+					numCopies++;
+					lowerborder = next - apSize - maxDelta;
+					upperborder = next - apSize;
+					i = firstWithLast(bucketLasts, i) - 1;
+				} else {
+					// there is another tandem repeat at lower index
+					break;
+				}
+			}
+			// for definition if a TR pass criteria num copies is at least
+			// of 2
+			numCopies++;
+			finalC.setNumCopies(numCopies);
+			finalC.setFirst(beginning);
+			answer.add(finalC);
+		}
+		sizes[apSize] = 0;
+	}
+
+	/**
+	 * @param bucketLasts
+	 * @param i
+	 * @return lowest index of the bucket with the same last index as i
+	 */
+	private static int firstWithLast(int[] bucketLasts, int i) {
+		int last = bucketLasts[i];
+		while (i > 0 && bucketLasts[i - 1] == last) {
+			i--;
+		}
+		return i;
+	}
+
+}
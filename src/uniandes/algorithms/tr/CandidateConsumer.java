@@ -0,0 +1,24 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Receives the candidates found by CandidateScanner as primitive values, so
+ * that no object is created for each raw candidate
+ */
+@FunctionalInterface
+public interface CandidateConsumer {
+
+	/**
+	 * Receives a candidate
+	 *
+	 * @param first
+	 *            first index of the candidate
+	 * @param last
+	 *            last index of the candidate
+	 * @param apparentSize
+	 * @param sumOfHeads
+	 * @param tupleIndex
+	 *            index of the tuple size that found the candidate
+	 */
+	public void accept(int first, int last, int apparentSize, int sumOfHeads, int tupleIndex);
+
+}
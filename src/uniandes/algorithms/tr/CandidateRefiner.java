@@ -0,0 +1,210 @@
+package uniandes.algorithms.tr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Refines the candidates found by a scan while the scan goes on. Candidates
+ * must be received in increasing order of their last index. Candidates of
+ * each tuple size and apparent size s are kept in a bucket of a
+ * CandidateBuffer, without creating objects for them, until the scan is
+ * more than s + maxDelta positions after the last one, which means that no
+ * later candidate can be part of the same chain. Then the bucket is refined
+ * and the overlaps between refined candidates of the same tuple size are
+ * removed. The candidates kept for all the tuple sizes are passed to the next
+ * consumer, sorted by first index and then by tuple size, as soon as no later
+ * candidate can start before them, so that the next consumer can remove the
+ * overlaps between tuple sizes
+ */
+public class CandidateRefiner implements CandidateConsumer {
+
+	private int maxPatternSize;
+
+	// apparent size s, maximum number of positions checked for indels
+	private int[] maxDeltas;
+
+	// tuple size index t, candidates by apparent size not refined yet
+	private CandidateBuffer[] buckets;
+
+	// tuple size index t, apparent size s, position from which the bucket
+	// can be refined
+	private int[][] closeAt;
+
+	// lower bound of the positions at which a bucket can be refined
+	private int nextClose = Integer.MAX_VALUE;
+
+	// last index of the last candidate received
+	private int position;
+
+	// tuple size index t, refined candidates waiting for the ones that could
+	// start before them
+	private List<PriorityQueue<TandemRepeat>> refined = new ArrayList<PriorityQueue<TandemRepeat>>();
+
+	// tuple size index t, removes overlaps between refined candidates
+	private List<OverlapFilter> filters = new ArrayList<OverlapFilter>();
+
+	// tuple size index t, candidates kept by the filter, sorted by first index
+	private List<ArrayDeque<TandemRepeat>> kept = new ArrayList<ArrayDeque<TandemRepeat>>();
+
+	private Consumer<TandemRepeat> downstream;
+
+	/**
+	 * @param maxPatternSize
+	 * @param maxDeltas
+	 *            apparent size s, maximum number of positions to the left and
+	 *            right of s checked for indels
+	 * @param numTupleSizes
+	 *            number of tuple sizes used by the scan
+	 * @param downstream
+	 *            receives the candidates kept for each tuple size, sorted by
+	 *            first index and then by tuple size index
+	 */
+	public CandidateRefiner(int maxPatternSize, int[] maxDeltas, int numTupleSizes,
+			Consumer<TandemRepeat> downstream) {
+		this.maxPatternSize = maxPatternSize;
+		this.maxDeltas = maxDeltas;
+		this.downstream = downstream;
+		this.buckets = new CandidateBuffer[numTupleSizes];
+		this.closeAt = new int[numTupleSizes][maxPatternSize + 1];
+		for (int t = 0; t < numTupleSizes; t++) {
+			buckets[t] = new CandidateBuffer(maxPatternSize);
+			Arrays.fill(closeAt[t], Integer.MAX_VALUE);
+			refined.add(new PriorityQueue<TandemRepeat>(CandidateRefiner::compare));
+			ArrayDeque<TandemRepeat> tupleKept = new ArrayDeque<TandemRepeat>();
+			kept.add(tupleKept);
+			filters.add(new OverlapFilter(tupleKept::add));
+		}
+	}
+
+	/**
+	 * Receives a candidate found by the scan. Its last index must not be less
+	 * than the one of the previous candidate
+	 */
+	@Override
+	public void accept(int first, int last, int apSize, int sumOfHeads, int tupleIndex) {
+		int i = last;
+		position = i;
+		if (i >= nextClose) {
+			closeBuckets(i);
+		}
+		buckets[tupleIndex].add(first, last, apSize, sumOfHeads);
+		int[] tupleCloseAt = closeAt[tupleIndex];
+		tupleCloseAt[apSize] = i + apSize + maxDeltas[apSize] + 1;
+		if (tupleCloseAt[apSize] < nextClose) {
+			nextClose = tupleCloseAt[apSize];
+		}
+	}
+
+	/**
+	 * Refines the candidates left after the end of the scan and passes all
+	 * the remaining refined candidates. The refiner can be used for another
+	 * scan afterwards
+	 */
+	public void finish() {
+		closeBuckets(Integer.MAX_VALUE);
+		for (int t = 0; t < closeAt.length; t++) {
+			PriorityQueue<TandemRepeat> tupleRefined = refined.get(t);
+			while (!tupleRefined.isEmpty()) {
+				filters.get(t).accept(tupleRefined.poll());
+			}
+			filters.get(t).finish();
+		}
+		passKept(Integer.MAX_VALUE);
+		position = 0;
+	}
+
+	/**
+	 * Refines the buckets that can not get more candidates in the same chain
+	 * and filters the refined candidates that can not be preceded by later
+	 * ones
+	 *
+	 * @param i
+	 *            last index of the current candidate
+	 */
+	private void closeBuckets(int i) {
+		nextClose = Integer.MAX_VALUE;
+		List<TandemRepeat> answer = new ArrayList<TandemRepeat>();
+		for (int t = 0; t < closeAt.length; t++) {
+			answer.clear();
+			for (int s = 1; s <= maxPatternSize; s++) {
+				if (closeAt[t][s] <= i) {
+					buckets[t].refine(s, maxDeltas[s], answer);
+					closeAt[t][s] = Integer.MAX_VALUE;
+				} else if (closeAt[t][s] < nextClose) {
+					nextClose = closeAt[t][s];
+				}
+			}
+			refined.get(t).addAll(answer);
+		}
+		// first index of a chain is at least its lowest index minus two times
+		// its apparent size
+		long minFirst = (long) position - 2 * maxPatternSize + 1;
+		for (int t = 0; t < closeAt.length; t++) {
+			for (int s = 1; s <= maxPatternSize; s++) {
+				if (closeAt[t][s] != Integer.MAX_VALUE) {
+					minFirst = Math.min(minFirst, buckets[t].getLast(s, 0) - 2 * s + 1);
+				}
+			}
+		}
+		long bound = minFirst;
+		for (int t = 0; t < closeAt.length; t++) {
+			PriorityQueue<TandemRepeat> tupleRefined = refined.get(t);
+			while (!tupleRefined.isEmpty() && tupleRefined.peek().getFirst() < minFirst) {
+				filters.get(t).accept(tupleRefined.poll());
+			}
+			// the filter can still pass its current group
+			bound = Math.min(bound, filters.get(t).getPendingFirst());
+		}
+		passKept(bound);
+	}
+
+	/**
+	 * Passes the candidates kept by the filters of all the tuple sizes with
+	 * first index less than the bound, merged by first index. Candidates with
+	 * the same first index are passed from the smallest tuple size index
+	 *
+	 * @param bound
+	 *            lower bound of the first index of the candidates that the
+	 *            filters can keep later
+	 */
+	private void passKept(long bound) {
+		while (true) {
+			ArrayDeque<TandemRepeat> next = null;
+			for (ArrayDeque<TandemRepeat> tupleKept : kept) {
+				if (!tupleKept.isEmpty() && tupleKept.peek().getFirst() < bound
+						&& (next == null || tupleKept.peek().getFirst() < next.peek().getFirst())) {
+					next = tupleKept;
+				}
+			}
+			if (next == null) {
+				break;
+			}
+			downstream.accept(next.poll());
+		}
+	}
+
+	/**
+	 * Order of the refined candidates: first index, then apparent size, then
+	 * last index from the largest. Overlapping candidates of the same total
+	 * size keep the last one, so the largest apparent size is kept
+	 *
+	 * @param o1
+	 * @param o2
+	 * @return comparison of o1 and o2
+	 */
+	public static int compare(TandemRepeat o1, TandemRepeat o2) {
+		int c = Integer.compare(o1.getFirst(), o2.getFirst());
+		if (c == 0) {
+			c = Integer.compare(o1.getUnitLength(), o2.getUnitLength());
+		}
+		if (c == 0) {
+			c = Integer.compare(o2.getLast(), o1.getLast());
+		}
+		return c;
+	}
+
+}
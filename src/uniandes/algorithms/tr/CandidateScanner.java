@@ -0,0 +1,349 @@
+package uniandes.algorithms.tr;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Scans sequences looking for tandem repeat candidates with one or more tuple
+ * sizes, all of them in the same pass over the sequence. The probe history,
+ * the matches at each distance and the block of characters are allocated
+ * once and reset at the beginning of each scan, so the same scanner can be
+ * used for any number of sequences or chunks. A scanner must be used by one
+ * thread at a time
+ */
+public class CandidateScanner {
+
+	// number of characters copied at a time from the sequence while it is
+	// scanned
+	private static final int SCAN_BLOCK_LENGTH = 1 << 14;
+
+	// tuple size index t, tuple size
+	private int[] kTupleSizes;
+
+	// largest tuple size
+	private int maxTupleSize;
+
+	// tuple size index t, smallest and largest distance evaluated with it
+	private int[] minDistances;
+	private int[] maxDistances;
+
+	private int maxPatternSize;
+
+	// distance d, maximum number of positions to the left and right of d
+	// checked for indels
+	private int[] maxDeltas;
+
+	// tuple size index t, distance d, sum of heads criteria
+	private int[][] sumOfHeadsThresholds;
+
+	// distance d, apparent size criteria
+	private int[] apparentSizeThresholds;
+
+	// tuple size index t, probe p (2-bit code), list of occurrences. Only
+	// occurrences up to the largest distance of the tuple size are needed
+	private KmerHistory[] historyLists;
+
+	// tuple size index t, occurrences not added to the history yet, by
+	// position modulo the smallest distance of the tuple size. Occurrences
+	// are added when the scan is at their smallest distance, so the history
+	// never has occurrences closer than the range of the tuple size
+	private int[][] pendingProbes;
+	private int[][] pendingPositions;
+
+	// tuple size index t, first position whose occurrence can still be
+	// pending
+	private int[] nextPending;
+
+	// tuple size index t, distance d, matches (last index) inside the window
+	// of size d
+	private DistanceMatches[] distanceLists;
+
+	// characters of the sequence being scanned
+	private byte[] block = new byte[SCAN_BLOCK_LENGTH];
+
+	/**
+	 * Creates a scanner that evaluates every distance up to maxPatternSize
+	 * with every tuple size. The criteria arrays are indexed by distance, from
+	 * 1 to maxPatternSize (the sum of heads criteria first by tuple size
+	 * index), and are not copied
+	 *
+	 * @param kTupleSizes
+	 *            tuple sizes, between 1 and KmerHistory.MAX_K_TUPLE_SIZE
+	 * @param maxPatternSize
+	 * @param maxDeltas
+	 * @param sumOfHeadsThresholds
+	 * @param apparentSizeThresholds
+	 */
+	public CandidateScanner(int[] kTupleSizes, int maxPatternSize, int[] maxDeltas, int[][] sumOfHeadsThresholds,
+			int[] apparentSizeThresholds) {
+		this(kTupleSizes, fill(kTupleSizes.length, 1), fill(kTupleSizes.length, maxPatternSize), maxPatternSize,
+				maxDeltas, sumOfHeadsThresholds, apparentSizeThresholds);
+	}
+
+	/**
+	 * Creates a scanner that evaluates each distance only with the tuple
+	 * sizes whose range contains it, so that short periods can use small
+	 * tuples and long periods larger ones, which have less spurious hits
+	 *
+	 * @param kTupleSizes
+	 *            tuple sizes, between 1 and KmerHistory.MAX_K_TUPLE_SIZE
+	 * @param minDistances
+	 *            smallest distance evaluated with each tuple size
+	 * @param maxDistances
+	 *            largest distance evaluated with each tuple size, at most
+	 *            maxPatternSize
+	 * @param maxPatternSize
+	 * @param maxDeltas
+	 * @param sumOfHeadsThresholds
+	 * @param apparentSizeThresholds
+	 */
+	public CandidateScanner(int[] kTupleSizes, int[] minDistances, int[] maxDistances, int maxPatternSize,
+			int[] maxDeltas, int[][] sumOfHeadsThresholds, int[] apparentSizeThresholds) {
+		this.kTupleSizes = kTupleSizes.clone();
+		this.minDistances = minDistances.clone();
+		this.maxDistances = maxDistances.clone();
+		this.maxPatternSize = maxPatternSize;
+		this.maxDeltas = maxDeltas;
+		this.sumOfHeadsThresholds = sumOfHeadsThresholds;
+		this.apparentSizeThresholds = apparentSizeThresholds;
+		this.historyLists = new KmerHistory[kTupleSizes.length];
+		this.distanceLists = new DistanceMatches[kTupleSizes.length];
+		this.pendingProbes = new int[kTupleSizes.length][];
+		this.pendingPositions = new int[kTupleSizes.length][];
+		this.nextPending = new int[kTupleSizes.length];
+		for (int t = 0; t < kTupleSizes.length; t++) {
+			pendingProbes[t] = new int[minDistances[t]];
+			pendingPositions[t] = new int[minDistances[t]];
+			maxTupleSize = Math.max(maxTupleSize, kTupleSizes[t]);
+			// distances outside the range of the tuple size never have
+			// matches
+			historyLists[t] = new KmerHistory(kTupleSizes[t], maxDistances[t]);
+			distanceLists[t] = new DistanceMatches(maxDistances[t]);
+		}
+	}
+
+	private static int[] fill(int length, int value) {
+		int[] array = new int[length];
+		Arrays.fill(array, value);
+		return array;
+	}
+
+	/**
+	 * Returns the number of positions before a chunk that must be scanned so
+	 * that candidates found inside the chunk are the same found scanning the
+	 * whole sequence. Matches are read up to maxPatternSize positions back,
+	 * and they depend on the probe occurrences and on the windows expired by
+	 * up to maxDelta neighbouring distances before them
+	 *
+	 * @return overlap with the previous chunk
+	 */
+	public int getOverlap() {
+		return 2 * (maxPatternSize + maxDeltas[maxPatternSize]) + maxTupleSize;
+	}
+
+	/**
+	 * Finds the candidates whose last index is inside the given chunk. The
+	 * sequence is scanned from getOverlap positions before the chunk
+	 *
+	 * @param sequence
+	 * @param from
+	 *            first index of the chunk
+	 * @param to
+	 *            index after the end of the chunk
+	 * @return candidates by apparent size and last index, for all the tuple
+	 *         sizes
+	 */
+	public CandidateBuffer scan(NucleotideSequence sequence, int from, int to) {
+		CandidateBuffer candidates = new CandidateBuffer(maxPatternSize);
+		scan(sequence, from, to, candidates);
+		return candidates;
+	}
+
+	/**
+	 * Finds the candidates whose last index is inside the given chunk and
+	 * passes them to the consumer as tandem repeats, see
+	 * scan(NucleotideSequence, int, int, CandidateConsumer)
+	 *
+	 * @param sequence
+	 * @param from
+	 *            first index of the chunk
+	 * @param to
+	 *            index after the end of the chunk
+	 * @param consumer
+	 *            receives the candidates and the index of their tuple size
+	 */
+	public void scan(NucleotideSequence sequence, int from, int to, ObjIntConsumer<TandemRepeat> consumer) {
+		scan(sequence, from, to, (first, last, apparentSize, sumOfHeads, t) -> consumer
+				.accept(new TandemRepeat(first, last, apparentSize, sumOfHeads), t));
+	}
+
+	/**
+	 * Finds the candidates whose last index is inside the given chunk and
+	 * passes them to the consumer as soon as they are found, in increasing
+	 * order of last index, together with the index of the tuple size that
+	 * found them. The sequence is scanned from getOverlap positions before the
+	 * chunk
+	 *
+	 * @param sequence
+	 * @param from
+	 *            first index of the chunk
+	 * @param to
+	 *            index after the end of the chunk
+	 * @param consumer
+	 *            receives the candidates and the index of their tuple size
+	 */
+	public void scan(NucleotideSequence sequence, int from, int to, CandidateConsumer consumer) {
+		int numTupleSizes = kTupleSizes.length;
+		int start = Math.max(0, from - getOverlap());
+		for (int t = 0; t < numTupleSizes; t++) {
+			historyLists[t].clear();
+			distanceLists[t].clear();
+			Arrays.fill(pendingPositions[t], -1);
+			nextPending[t] = start;
+		}
+		// tuple size index t, 2-bit code of the probe, updated as a rolling
+		// hash. Probes of every tuple size end at the same index
+		int[] probes = new int[numTupleSizes];
+		int[] probeMasks = new int[numTupleSizes];
+		for (int t = 0; t < numTupleSizes; t++) {
+			probeMasks[t] = (1 << (2 * kTupleSizes[t])) - 1;
+		}
+		// number of consecutive valid nucleotides ending at i
+		int validBases = 0;
+		// characters of the sequence are copied by blocks
+		int blockStart = start;
+		int blockEnd = start;
+		// loop over the sequence to find candidates
+		for (int i = start; i < to; i++) {
+			if (i == blockEnd) {
+				blockStart = i;
+				blockEnd = Math.min(to, i + SCAN_BLOCK_LENGTH);
+				sequence.getBytes(blockStart, blockEnd, block, 0);
+			}
+			int base = Nucleotides.encode((char) block[i - blockStart]);
+			if (base == Nucleotides.NO_CODE) {
+				// probes containing N or ambiguity codes are skipped
+				validBases = 0;
+				continue;
+			}
+			validBases++;
+			for (int t = 0; t < numTupleSizes; t++) {
+				// i final index of probe p, inclusive
+				probes[t] = ((probes[t] << 2) | base) & probeMasks[t];
+				if (validBases >= kTupleSizes[t]) {
+					scanProbe(t, probes[t], i, from, consumer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the previous occurrences of the probe ending at i and adds it to
+	 * the history
+	 *
+	 * @param t
+	 *            index of the tuple size
+	 * @param probe
+	 *            2-bit code of the probe
+	 * @param i
+	 *            final index of the probe
+	 * @param from
+	 *            first index of the chunk, candidates before it are not passed
+	 * @param consumer
+	 */
+	private void scanProbe(int t, int probe, int i, int from, CandidateConsumer consumer) {
+		int kTupleSize = kTupleSizes[t];
+		int[] sumOfHeadsThresholds = this.sumOfHeadsThresholds[t];
+		int minDistance = minDistances[t];
+		int maxDistance = maxDistances[t];
+		KmerHistory historyList = historyLists[t];
+		DistanceMatches distanceList = distanceLists[t];
+		// occurrences at the smallest distance or more are added to the
+		// history, closer ones are evaluated with another tuple size
+		int[] waitingProbes = pendingProbes[t];
+		int[] waitingPositions = pendingPositions[t];
+		for (int p = nextPending[t]; p <= i - minDistance; p++) {
+			int slot = p % minDistance;
+			if (waitingPositions[slot] == p) {
+				historyList.add(waitingProbes[slot], p);
+			}
+		}
+		nextPending[t] = Math.max(nextPending[t], i - minDistance + 1);
+		// now we scan previous occurrences of probe, from the closest one
+		for (int j = historyList.latest(probe); j != KmerHistory.NONE; j = historyList.previous(j)) {
+			int d = i - j;
+			// If d is greater than max size we will not calculate this
+			// tandem repeat
+			if (d > maxDistance) {
+				break;
+			} else {
+				int totalMatches = 0;
+				int leftMostIndex = Integer.MAX_VALUE;
+				// Max delta distance to the left and right to check for
+				// indels
+				int maxDelta = maxDeltas[d];
+				int maxRange = i - d + 1;
+				// matches that happened before i-d+1 are removed, d
+				// could be taken as a sliding window
+				distanceList.expire(d, maxRange);
+				// We add this match index to the matches at distance d
+				distanceList.add(d, i);
+				// The minimum element in matches is the oldest one
+				int min = distanceList.first(d) - kTupleSize + 1; // moderate
+				if (min < leftMostIndex) {
+					leftMostIndex = min;
+				}
+				// we calculate sum of heads for this probe
+				totalMatches += distanceList.size(d) * kTupleSize;
+				// update nearby distances list
+				for (int k = 1; k < maxDelta + 1; k++) {
+					int dleft = d - k;
+					int dright = d + k;
+					// if a match was found at left perform same operations
+					// for d
+					if (dleft > 0 && distanceList.size(dleft) > 0) {
+						distanceList.expire(dleft, maxRange);
+						int matches = distanceList.size(dleft);
+						if (matches > 0) {
+							totalMatches += matches * kTupleSize;
+							min = distanceList.first(dleft) - kTupleSize + 1;
+							if (min < leftMostIndex) {
+								leftMostIndex = min;
+							}
+						}
+					}
+					// if a match was found at right perform same
+					// operations for d
+					if (distanceList.size(dright) > 0) {
+						distanceList.expire(dright, maxRange);
+						int matches = distanceList.size(dright);
+						if (matches > 0) {
+							totalMatches += matches * kTupleSize;
+							min = distanceList.first(dright) - kTupleSize + 1;
+							if (min < leftMostIndex) {
+								leftMostIndex = min;
+							}
+						}
+					}
+				}
+				// now we compute apparent size to test criteria
+				int apparentSize = i - leftMostIndex + 1;
+				// limit apparent size
+				if (apparentSize > d) {
+					apparentSize = d;
+				}
+				// test criteria, positions before the chunk only prepare
+				// the history
+				if (i >= from && totalMatches >= sumOfHeadsThresholds[d]
+						&& apparentSize >= apparentSizeThresholds[d]) {
+					// if TR matches criteria it is created
+					consumer.accept(j + 1, i, apparentSize, totalMatches, t);
+				}
+			}
+		}
+		// finally the occurrence waits to be added to the history
+		waitingProbes[i % minDistance] = probe;
+		waitingPositions[i % minDistance] = i;
+	}
+
+}
@@ -0,0 +1,155 @@
+package uniandes.algorithms.tr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that scanning a sequence by chunks finds the same candidates as
+ * scanning it in one pass. For several tuple sizes and chunk lengths, the
+ * candidates of getCandidates(k, from, to) over consecutive chunks are merged
+ * and compared with the ones of getCandidates(k) in one thread, and the
+ * candidates of scan with several threads are compared with the ones of scan
+ * in one thread. Sequences are synthetic ones of several lengths and the
+ * sequences of the given fasta files. Prints one line per comparison and
+ * exits with status 1 if any of them is different
+ */
+public class ChunkedScanCheck {
+
+	// lengths of the synthetic sequences
+	private static final int[] SYNTHETIC_LENGTHS = { 5000, 200000, 1 << 21 };
+
+	// chunk lengths used with getCandidates(k, from, to)
+	private static final int[] CHUNK_LENGTHS = { 1, 37, 1000, TRFCandidateSelector.MIN_CHUNK_LENGTH, 100000 };
+
+	// chunk lengths giving more chunks than this are skipped
+	private static final int MAX_CHUNKS = 10000;
+
+	private static final int[] K_TUPLE_SIZES = { 4, 5, 7 };
+
+	// maximum size of the pattern
+	private static final int MAX_SIZE = 25;
+
+	// number of threads of the parallel scans
+	private static final int NUM_THREADS = 4;
+
+	private static int mismatches = 0;
+
+	/**
+	 * Arguments (all optional): fasta files checked after the synthetic
+	 * sequences
+	 */
+	public static void main(String[] args) throws Exception {
+		for (int i = 0; i < SYNTHETIC_LENGTHS.length; i++) {
+			check("synthetic" + SYNTHETIC_LENGTHS[i], TandemRepeatsBenchmark.synthesize(SYNTHETIC_LENGTHS[i], 17 + i));
+		}
+		for (String fastaFilename : args) {
+			try (FastaSequenceReader reader = new FastaSequenceReader(fastaFilename)) {
+				while (reader.next()) {
+					check(reader.getName(), reader.getSequence());
+				}
+			}
+		}
+		if (mismatches > 0) {
+			System.out.println(mismatches + " mismatches");
+			System.exit(1);
+		}
+		System.out.println("All the chunked scans are the same as the single thread scans");
+	}
+
+	/**
+	 * Runs every comparison on one sequence
+	 *
+	 * @param name
+	 * @param characters
+	 *            upper case characters of the sequence
+	 */
+	private static void check(String name, byte[] characters) {
+		ByteArraySequence sequence = new ByteArraySequence(characters);
+		int length = characters.length;
+		TRFCandidateSelector single = new TRFCandidateSelector(0.8, 0.1, MAX_SIZE, 30, 2, 4, 1);
+		TRFCandidateSelector parallel = new TRFCandidateSelector(0.8, 0.1, MAX_SIZE, 30, 2, 4, NUM_THREADS);
+
+		// candidates of each tuple size, merged from the chunks
+		single.scan(sequence, name, tr -> {
+		});
+		parallel.scan(sequence, name, tr -> {
+		});
+		for (int k : K_TUPLE_SIZES) {
+			String expected = dump(single.getCandidates(k));
+			report(name, "k=" + k + " threads=" + NUM_THREADS, expected.equals(dump(parallel.getCandidates(k))));
+			for (int chunkLength : CHUNK_LENGTHS) {
+				if (chunkLength >= length || length / chunkLength > MAX_CHUNKS) {
+					continue;
+				}
+				CandidateBuffer merged = new CandidateBuffer(MAX_SIZE);
+				for (int from = 0; from < length; from += chunkLength) {
+					CandidateBuffer chunk = single.getCandidates(k, from, Math.min(length, from + chunkLength));
+					for (int s = 1; s <= chunk.getMaxPatternSize(); s++) {
+						for (int i = 0; i < chunk.size(s); i++) {
+							merged.add(chunk.getFirst(s, i), chunk.getLast(s, i), s, chunk.getSumOfHeads(s, i));
+						}
+					}
+				}
+				report(name, "k=" + k + " chunk=" + chunkLength, expected.equals(dump(merged)));
+			}
+		}
+
+		// refined candidates without overlaps, with one and several tuple
+		// sizes
+		for (int[] tupleSizes : new int[][] { { 5 }, K_TUPLE_SIZES }) {
+			single.setTupleSizes(tupleSizes);
+			parallel.setTupleSizes(tupleSizes);
+			List<TandemRepeat> expected = new ArrayList<TandemRepeat>();
+			single.scan(sequence, name, expected::add);
+			List<TandemRepeat> found = new ArrayList<TandemRepeat>();
+			parallel.scan(sequence, name, found::add);
+			report(name, "scan tuples=" + tupleSizes.length + " threads=" + NUM_THREADS,
+					dump(expected).equals(dump(found)));
+		}
+	}
+
+	/**
+	 * Prints the result of one comparison
+	 *
+	 * @param name
+	 *            name of the sequence
+	 * @param comparison
+	 * @param same
+	 *            true if the candidates are the same
+	 */
+	private static void report(String name, String comparison, boolean same) {
+		if (!same) {
+			mismatches++;
+		}
+		System.out.println(name + " " + comparison + " " + (same ? "ok" : "MISMATCH"));
+	}
+
+	/**
+	 * @param candidates
+	 * @return text with every candidate of every apparent size, in order
+	 */
+	private static String dump(CandidateBuffer candidates) {
+		StringBuilder answer = new StringBuilder();
+		for (int s = 1; s <= candidates.getMaxPatternSize(); s++) {
+			for (int i = 0; i < candidates.size(s); i++) {
+				answer.append(candidates.getFirst(s, i)).append(' ').append(candidates.getLast(s, i)).append(' ')
+						.append(s).append(' ').append(candidates.getSumOfHeads(s, i)).append('\n');
+			}
+		}
+		return answer.toString();
+	}
+
+	/**
+	 * @param candidates
+	 * @return text with every candidate, in order
+	 */
+	private static String dump(List<TandemRepeat> candidates) {
+		StringBuilder answer = new StringBuilder();
+		for (TandemRepeat tr : candidates) {
+			answer.append(tr).append(' ').append(tr.getPatternBeginning()).append(' ').append(tr.getNumCopies())
+					.append('\n');
+		}
+		return answer.toString();
+	}
+
+}
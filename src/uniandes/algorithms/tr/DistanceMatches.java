@@ -0,0 +1,121 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Last indexes of the probe matches found at each distance d. Indexes are
+ * added in increasing order, so the matches of each distance form a monotone
+ * deque: old matches expire from the head, which is also the minimum. Each
+ * deque is a ring of d slots inside one flat primitive array
+ */
+public class DistanceMatches {
+
+	// largest distance that can have matches
+	private int maxDistance;
+
+	// rings of all distances, the ring of distance d starts at offsets[d] and
+	// has d slots
+	private int[] matches;
+
+	// distance d, first slot of its ring
+	private int[] offsets;
+
+	// distance d, slot of the oldest match inside its ring
+	private int[] heads;
+
+	// distance d, number of matches in its ring
+	private int[] sizes;
+
+	/**
+	 * Creates empty deques for distances between 1 and maxDistance
+	 *
+	 * @param maxDistance
+	 *            largest distance that can have matches
+	 */
+	public DistanceMatches(int maxDistance) {
+		this.maxDistance = maxDistance;
+		this.offsets = new int[maxDistance + 1];
+		int total = 0;
+		for (int d = 1; d <= maxDistance; d++) {
+			offsets[d] = total;
+			total += d;
+		}
+		this.matches = new int[total];
+		this.heads = new int[maxDistance + 1];
+		this.sizes = new int[maxDistance + 1];
+	}
+
+	/**
+	 * Removes every match so that the deques can be reused
+	 */
+	public void clear() {
+		for (int d = 1; d <= maxDistance; d++) {
+			heads[d] = 0;
+			sizes[d] = 0;
+		}
+	}
+
+	/**
+	 * @param d
+	 *            distance
+	 * @return number of matches at distance d
+	 */
+	public int size(int d) {
+		if (d > maxDistance) {
+			return 0;
+		}
+		return sizes[d];
+	}
+
+	/**
+	 * @param d
+	 *            distance, must have at least one match
+	 * @return smallest (oldest) index of the matches at distance d
+	 */
+	public int first(int d) {
+		return matches[offsets[d] + heads[d]];
+	}
+
+	/**
+	 * Removes the matches at distance d whose index is less than minIndex
+	 *
+	 * @param d
+	 *            distance
+	 * @param minIndex
+	 *            smallest index that is kept
+	 */
+	public void expire(int d, int minIndex) {
+		if (d > maxDistance) {
+			return;
+		}
+		int offset = offsets[d];
+		int head = heads[d];
+		int size = sizes[d];
+		while (size > 0 && matches[offset + head] < minIndex) {
+			head++;
+			if (head == d) {
+				head = 0;
+			}
+			size--;
+		}
+		heads[d] = head;
+		sizes[d] = size;
+	}
+
+	/**
+	 * Adds a match at distance d. Matches at distance d older than index - d + 1
+	 * must be expired before
+	 *
+	 * @param d
+	 *            distance
+	 * @param index
+	 *            last index of the match
+	 */
+	public void add(int d, int index) {
+		int tail = heads[d] + sizes[d];
+		if (tail >= d) {
+			tail -= d;
+		}
+		matches[offsets[d] + tail] = index;
+		sizes[d]++;
+	}
+
+}
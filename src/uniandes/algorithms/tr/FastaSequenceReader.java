@@ -0,0 +1,268 @@
+package uniandes.algorithms.tr;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a fasta file one sequence at a time. Each sequence is loaded directly
+ * into an upper case byte array, so only the sequence being processed is in
+ * memory instead of the whole genome. The lengths of the sequences can be read
+ * first, without loading them, to reserve memory before each one is loaded
+ */
+public class FastaSequenceReader implements Closeable {
+
+	// size of the buffer used to read the file
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// initial capacity of the array of a sequence
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	private InputStream in;
+
+	// bytes read from the file that are not processed yet
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	// next byte to process and number of valid bytes of the buffer
+	private int position;
+	private int limit;
+
+	// name of the current sequence
+	private String name;
+
+	// characters of the current sequence
+	private byte[] sequence;
+
+	/**
+	 * Opens the fasta file
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public FastaSequenceReader(String filename) throws IOException {
+		this(new FileInputStream(filename));
+	}
+
+	/**
+	 * @param in
+	 *            stream with fasta records, it is closed with this reader
+	 */
+	public FastaSequenceReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the next sequence of the file. The array of the previous sequence
+	 * is not kept by this reader
+	 *
+	 * @return true if a sequence was read, false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		sequence = null;
+		if (!readHeader()) {
+			return false;
+		}
+		readBases(new byte[INITIAL_CAPACITY], false);
+		return true;
+	}
+
+	/**
+	 * Reads the next sequence of the file into an array of the given length,
+	 * for example the one given by readLengths, so that the array is
+	 * allocated once and never copied
+	 *
+	 * @param length
+	 *            number of characters of the sequence
+	 * @return true if a sequence was read, false at the end of the file
+	 * @throws IOException
+	 *             if the sequence does not have the given length
+	 */
+	public boolean next(int length) throws IOException {
+		sequence = null;
+		if (!readHeader()) {
+			return false;
+		}
+		readBases(new byte[length], true);
+		return true;
+	}
+
+	/**
+	 * Skips the next sequence of the file without keeping its characters
+	 *
+	 * @return number of characters of the sequence, -1 at the end of the file
+	 * @throws IOException
+	 */
+	public long skip() throws IOException {
+		sequence = null;
+		if (!readHeader()) {
+			return -1;
+		}
+		return readBases(null, false);
+	}
+
+	/**
+	 * Reads the lengths of the sequences of a fasta file without loading them
+	 *
+	 * @param filename
+	 * @return number of characters of each sequence, in the order of the file
+	 * @throws IOException
+	 */
+	public static List<Long> readLengths(String filename) throws IOException {
+		List<Long> lengths = new ArrayList<Long>();
+		try (FastaSequenceReader reader = new FastaSequenceReader(filename)) {
+			long length = reader.skip();
+			while (length >= 0) {
+				lengths.add(length);
+				length = reader.skip();
+			}
+		}
+		return lengths;
+	}
+
+	/**
+	 * Reads the header of the next sequence
+	 *
+	 * @return true if a header was read, false at the end of the file
+	 * @throws IOException
+	 */
+	private boolean readHeader() throws IOException {
+		name = null;
+		// skip until the next header
+		int c = read();
+		while (c != -1 && c != '>') {
+			if (c != '\n') {
+				skipLine();
+			}
+			c = read();
+		}
+		if (c == -1) {
+			return false;
+		}
+		// name is the header up to the first space
+		StringBuilder header = new StringBuilder();
+		c = read();
+		while (c != -1 && c != '\n' && c != '\r' && c != ' ' && c != '\t') {
+			header.append((char) c);
+			c = read();
+		}
+		if (c != '\n' && c != -1) {
+			skipLine();
+		}
+		name = header.toString();
+		return true;
+	}
+
+	/**
+	 * Reads the sequence lines until the next header
+	 *
+	 * @param bases
+	 *            array receiving the characters, which become the current
+	 *            sequence, null to skip them
+	 * @param exact
+	 *            true if the sequence must fill the array, false to grow it
+	 *            as needed
+	 * @return number of characters of the sequence
+	 * @throws IOException
+	 */
+	private long readBases(byte[] bases, boolean exact) throws IOException {
+		long length = 0;
+		boolean lineStart = true;
+		while (true) {
+			if (position == limit && !fill()) {
+				break;
+			}
+			byte b = buffer[position];
+			if (lineStart && b == '>') {
+				break;
+			}
+			position++;
+			if (b == '\n') {
+				lineStart = true;
+				continue;
+			}
+			lineStart = false;
+			if (b == '\r' || b == ' ' || b == '\t') {
+				continue;
+			}
+			if (bases == null) {
+				length++;
+				continue;
+			}
+			if (b >= 'a' && b <= 'z') {
+				b -= 'a' - 'A';
+			}
+			if (length == bases.length) {
+				if (exact) {
+					throw new IOException("Sequence " + name + " is longer than " + bases.length);
+				}
+				if (length == NucleotideSequence.MAX_LENGTH) {
+					throw new IOException("Sequence " + name + " is longer than the maximum of "
+							+ NucleotideSequence.MAX_LENGTH + " bases");
+				}
+				bases = Arrays.copyOf(bases, (int) Math.min(NucleotideSequence.MAX_LENGTH, 2L * length));
+			}
+			bases[(int) length++] = b;
+		}
+		if (bases != null) {
+			if (exact && length < bases.length) {
+				throw new IOException("Sequence " + name + " is shorter than " + bases.length);
+			}
+			sequence = length == bases.length ? bases : Arrays.copyOf(bases, (int) length);
+		}
+		return length;
+	}
+
+	/**
+	 * @return name of the current sequence
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return upper case characters of the current sequence
+	 */
+	public byte[] getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private int read() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	/**
+	 * Skips the rest of the current line, including the end of line
+	 *
+	 * @throws IOException
+	 */
+	private void skipLine() throws IOException {
+		int c = read();
+		while (c != -1 && c != '\n') {
+			c = read();
+		}
+	}
+
+	private boolean fill() throws IOException {
+		limit = in.read(buffer, 0, buffer.length);
+		position = 0;
+		if (limit <= 0) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+
+}
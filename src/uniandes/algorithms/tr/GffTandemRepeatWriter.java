@@ -0,0 +1,88 @@
+package uniandes.algorithms.tr;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the reported tandem repeats in GFF3 format, one tandem_repeat
+ * feature per repeat with 1-based coordinates, the alignment score as score
+ * and the period, number of copies and pattern as attributes. Sequences and
+ * allignments are not written
+ */
+public class GffTandemRepeatWriter implements TandemRepeatWriter {
+
+	// extension of GFF3 files
+	public static final String EXTENSION = ".gff3";
+
+	// source column of the features
+	private static final String SOURCE = "TandemRepeats";
+
+	// type of the features, SO:0000705
+	private static final String TYPE = "tandem_repeat";
+
+	// size of the output buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private Writer out;
+
+	// buffer reused to format each line
+	private StringBuilder line = new StringBuilder();
+
+	// number of features written, used as id
+	private long numFeatures;
+
+	/**
+	 * Creates the output file, replacing it if it exists, and writes the
+	 * version directive
+	 * 
+	 * @param filename
+	 * @throws IOException
+	 */
+	public GffTandemRepeatWriter(String filename) throws IOException {
+		this(new FileOutputStream(filename));
+	}
+
+	/**
+	 * @param out
+	 *            stream receiving the output, it is closed with this writer
+	 * @throws IOException
+	 */
+	public GffTandemRepeatWriter(OutputStream out) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+		this.out.write("##gff-version 3\n");
+	}
+
+	@Override
+	public void write(ReportedTandemRepeat repeat) throws IOException {
+		numFeatures++;
+		line.setLength(0);
+		line.append(repeat.getSequenceName()).append('\t');
+		line.append(SOURCE).append('\t');
+		line.append(TYPE).append('\t');
+		line.append(repeat.getFirst() + 1).append('\t');
+		line.append(repeat.getLast() + 1).append('\t');
+		line.append(repeat.getAlignmentScore()).append('\t');
+		line.append(".\t.\t");
+		line.append("ID=TR").append(numFeatures);
+		line.append(";period=").append(repeat.getPeriod());
+		line.append(";copies=").append(repeat.getNumCopies());
+		line.append(";pattern=").append(repeat.getPattern()).append('\n');
+		out.append(line);
+	}
+
+	@Override
+	public boolean writesAlignments() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
@@ -0,0 +1,88 @@
+package uniandes.algorithms.tr;
+
+import java.util.Arrays;
+
+/**
+ * Recent occurrences of every k-mer of a sequence, indexed by the 2-bit code
+ * of the k-mer. Only the occurrences inside a sliding window of the last
+ * positions are kept, so memory is O(4^k + window) no matter how long the
+ * sequence is
+ */
+public class KmerHistory {
+
+	// value returned when there are no more occurrences
+	public static final int NONE = -1;
+
+	// largest size of the k-mers. The table has 4^k entries and is cleared for
+	// every scan, 4^8 ints take 256 KB, and TRF uses k up to 7
+	public static final int MAX_K_TUPLE_SIZE = 8;
+
+	// k-mer code, last position where the k-mer ends
+	private int[] latest;
+
+	// ring buffer indexed by position, previous occurrence of the k-mer
+	// ending at that position
+	private int[] previous;
+
+	/**
+	 * Creates an empty history for k-mers of the given size
+	 *
+	 * @param kTupleSize
+	 *            size of the k-mers, at most MAX_K_TUPLE_SIZE
+	 * @param windowSize
+	 *            maximum distance between a position and the occurrences that
+	 *            are queried from it
+	 */
+	public KmerHistory(int kTupleSize, int windowSize) {
+		if (kTupleSize < 1 || kTupleSize > MAX_K_TUPLE_SIZE) {
+			throw new IllegalArgumentException("Invalid k-tuple size: " + kTupleSize);
+		}
+		this.latest = new int[1 << (2 * kTupleSize)];
+		this.previous = new int[windowSize + 1];
+		clear();
+	}
+
+	/**
+	 * Removes every occurrence so that the history can be reused
+	 */
+	public void clear() {
+		Arrays.fill(latest, NONE);
+	}
+
+	/**
+	 * @param code
+	 *            2-bit code of the k-mer
+	 * @return last index of the most recent occurrence of the k-mer, or NONE
+	 */
+	public int latest(int code) {
+		return latest[code];
+	}
+
+	/**
+	 * Returns the occurrence of the same k-mer that precedes the one ending at
+	 * the given position. The position must be inside the window of the last
+	 * position added
+	 *
+	 * @param position
+	 *            last index of an occurrence
+	 * @return last index of the previous occurrence, or NONE
+	 */
+	public int previous(int position) {
+		return previous[position % previous.length];
+	}
+
+	/**
+	 * Adds an occurrence of the k-mer. Positions must be added in increasing
+	 * order
+	 *
+	 * @param code
+	 *            2-bit code of the k-mer
+	 * @param position
+	 *            last index of the k-mer in the sequence
+	 */
+	public void add(int code, int position) {
+		previous[position % previous.length] = latest[code];
+		latest[code] = position;
+	}
+
+}
@@ -0,0 +1,31 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Read only access to the upper case characters of a sequence, independent
+ * of how they are stored. Implementations must allow concurrent reads from
+ * several threads. Indexes are int, so a sequence has at most MAX_LENGTH
+ * bases; files with several sequences can be larger
+ */
+public interface NucleotideSequence {
+
+	// largest number of bases of a sequence, the largest array of characters
+	public static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+	/**
+	 * @return number of bases of the sequence
+	 */
+	public int length();
+
+	/**
+	 * Copies the characters from index from to index to - 1
+	 * 
+	 * @param from
+	 * @param to
+	 * @param dest
+	 *            array receiving the characters
+	 * @param destStart
+	 *            first index of dest that is written
+	 */
+	public void getBytes(int from, int to, byte[] dest, int destStart);
+
+}
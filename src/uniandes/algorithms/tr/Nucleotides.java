@@ -0,0 +1,46 @@
+package uniandes.algorithms.tr;
+
+/**
+ * 2-bit encoding of the nucleotides A, C, G and T. Any other character (N or
+ * an ambiguity code) has no code
+ */
+public final class Nucleotides {
+
+	// code returned for characters that are not A, C, G or T
+	public static final int NO_CODE = -1;
+
+	// 2-bit code for every ASCII character, NO_CODE if it is not a nucleotide
+	private static final byte[] CODES = new byte[128];
+
+	static {
+		for (int i = 0; i < CODES.length; i++) {
+			CODES[i] = NO_CODE;
+		}
+		CODES['A'] = 0;
+		CODES['C'] = 1;
+		CODES['G'] = 2;
+		CODES['T'] = 3;
+		CODES['a'] = 0;
+		CODES['c'] = 1;
+		CODES['g'] = 2;
+		CODES['t'] = 3;
+	}
+
+	private Nucleotides() {
+	}
+
+	/**
+	 * Returns the 2-bit code of a nucleotide
+	 *
+	 * @param base
+	 *            character of the sequence
+	 * @return code between 0 and 3, or NO_CODE if base is not A, C, G or T
+	 */
+	public static int encode(char base) {
+		if (base >= CODES.length) {
+			return NO_CODE;
+		}
+		return CODES[base];
+	}
+
+}
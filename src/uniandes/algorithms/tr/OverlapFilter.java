@@ -0,0 +1,107 @@
+package uniandes.algorithms.tr;
+
+import java.util.function.Consumer;
+
+/**
+ * Removes tandem repeats overlapping the same section while they are
+ * received sorted by first index. Overlapping tandem repeats form a group
+ * covering the union of their sections, and only the one with the largest
+ * total size is kept (the last one received if several have the same size).
+ * A group is passed to the next consumer when a tandem repeat outside its
+ * section is received
+ */
+public class OverlapFilter implements Consumer<TandemRepeat> {
+
+	// best tandem repeat of the current group, null if there is no group
+	private TandemRepeat best;
+
+	// minimum index of section
+	private int left;
+
+	// maximum index of section
+	private int right;
+
+	private Consumer<TandemRepeat> downstream;
+
+	/**
+	 * @param downstream
+	 *            receives the tandem repeats kept, sorted by first index
+	 */
+	public OverlapFilter(Consumer<TandemRepeat> downstream) {
+		this.downstream = downstream;
+	}
+
+	/**
+	 * Receives a tandem repeat
+	 *
+	 * @param trc
+	 *            first index must not be less than the one of the previous
+	 *            tandem repeat
+	 */
+	@Override
+	public void accept(TandemRepeat trc) {
+		int begin = trc.getFirst();
+		int end = trc.getLast();
+		if (best != null && isOverlapped(left, right, begin, end)) {
+			// if the 2 TR are overlapped we update ref indexes
+			if (begin < left) {
+				left = begin;
+			}
+			if (end > right) {
+				right = end;
+			}
+			if (trc.getTotalSize() >= best.getTotalSize()) {
+				// best, covering more distance
+				best = trc;
+			}
+		} else {
+			// this is a different TR, the previous group is finished
+			if (best != null) {
+				downstream.accept(best);
+			}
+			best = trc;
+			left = begin;
+			right = end;
+		}
+	}
+
+	/**
+	 * @return first index of the best tandem repeat of the current group, a
+	 *         lower bound of the first index of the next tandem repeat passed,
+	 *         or Integer.MAX_VALUE if there is no group
+	 */
+	public int getPendingFirst() {
+		return best != null ? best.getFirst() : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Passes the best tandem repeat of the last group. The filter can be used
+	 * for another sequence afterwards
+	 */
+	public void finish() {
+		if (best != null) {
+			downstream.accept(best);
+			best = null;
+		}
+	}
+
+	/**
+	 * Checks if sequence from i1 to i2 overlaps with sequence from j1 to j2
+	 * 
+	 * @param i1
+	 * @param i2
+	 * @param j1
+	 * @param j2
+	 * @return
+	 */
+	public static boolean isOverlapped(int i1, int i2, int j1, int j2) {
+		boolean ans = false;
+		ans |= (i1 == j1 && i2 == j2);
+		ans |= (j1 <= i1 && (j2 >= i1 && j2 <= i2));
+		ans |= ((j1 >= i1 && j1 <= i2) && j2 >= i2);
+		ans |= (j1 <= i1 && j2 >= i2);
+		ans |= (j1 >= i1 && j2 <= i2);
+		return ans;
+	}
+
+}
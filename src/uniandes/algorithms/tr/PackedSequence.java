@@ -0,0 +1,235 @@
+package uniandes.algorithms.tr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sequence stored with 2 bits per base plus a table of the runs of N. Any
+ * character that is not A, C, G or T is stored as N. The bases can be kept
+ * in the heap or in a memory mapped file, which can be shared by several
+ * threads without copying it to the heap.
+ *
+ * A packed file has one record per sequence: magic number, name, length,
+ * number of runs of N, start and end of each run, and the packed bases (base
+ * i is stored in the bits 2 * (i % 4) of byte i / 4). The file can be larger
+ * than 2 GB, but each sequence has at most NucleotideSequence.MAX_LENGTH
+ * bases
+ */
+public class PackedSequence implements NucleotideSequence {
+
+	// extension of packed files
+	public static final String EXTENSION = ".pseq";
+
+	// first int of each record of a packed file
+	private static final int MAGIC = 0x54525053;
+
+	// character of each 2-bit code
+	private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+
+	private String name;
+
+	private int length;
+
+	// 4 bases per byte
+	private ByteBuffer packed;
+
+	// first index and index after the end of each run of N, sorted
+	private int[] nStarts;
+	private int[] nEnds;
+
+	/**
+	 * Creates a sequence over already packed bases
+	 *
+	 * @param name
+	 * @param length
+	 *            number of bases
+	 * @param packed
+	 *            bases packed 4 per byte
+	 * @param nStarts
+	 *            first index of each run of N
+	 * @param nEnds
+	 *            index after the end of each run of N
+	 */
+	public PackedSequence(String name, int length, ByteBuffer packed, int[] nStarts, int[] nEnds) {
+		this.name = name;
+		this.length = length;
+		this.packed = packed;
+		this.nStarts = nStarts;
+		this.nEnds = nEnds;
+	}
+
+	/**
+	 * Packs the characters of a sequence in the heap
+	 *
+	 * @param name
+	 * @param characters
+	 * @return packed sequence
+	 */
+	public static PackedSequence pack(String name, byte[] characters) {
+		ByteBuffer packed = ByteBuffer.allocate(packedLength(characters.length));
+		int[][] runs = packBases(characters, packed);
+		return new PackedSequence(name, characters.length, packed, runs[0], runs[1]);
+	}
+
+	/**
+	 * Stores the codes of the characters in packed and finds the runs of N
+	 *
+	 * @param characters
+	 * @param packed
+	 *            buffer receiving the packed bases
+	 * @return starts and ends of the runs of N
+	 */
+	private static int[][] packBases(byte[] characters, ByteBuffer packed) {
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int numRuns = 0;
+		int current = 0;
+		for (int i = 0; i < characters.length; i++) {
+			int code = Nucleotides.encode((char) (characters[i] & 0xFF));
+			if (code == Nucleotides.NO_CODE) {
+				code = 0;
+				if (numRuns > 0 && ends[numRuns - 1] == i) {
+					ends[numRuns - 1] = i + 1;
+				} else {
+					if (numRuns == starts.length) {
+						starts = Arrays.copyOf(starts, 2 * numRuns);
+						ends = Arrays.copyOf(ends, 2 * numRuns);
+					}
+					starts[numRuns] = i;
+					ends[numRuns] = i + 1;
+					numRuns++;
+				}
+			}
+			current |= code << ((i & 3) << 1);
+			if ((i & 3) == 3 || i == characters.length - 1) {
+				packed.put(i >> 2, (byte) current);
+				current = 0;
+			}
+		}
+		return new int[][] { Arrays.copyOf(starts, numRuns), Arrays.copyOf(ends, numRuns) };
+	}
+
+	/**
+	 * @param numBases
+	 * @return number of bytes needed to pack the bases
+	 */
+	private static int packedLength(int numBases) {
+		return (int) (((long) numBases + 3) / 4);
+	}
+
+	/**
+	 * Packs every sequence of a fasta file into a packed file
+	 *
+	 * @param fastaFilename
+	 * @param packedFilename
+	 * @throws IOException
+	 */
+	public static void writeSequences(String fastaFilename, String packedFilename) throws IOException {
+		try (FastaSequenceReader reader = new FastaSequenceReader(fastaFilename);
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(packedFilename), 1 << 20))) {
+			while (reader.next()) {
+				byte[] characters = reader.getSequence();
+				ByteBuffer packed = ByteBuffer.allocate(packedLength(characters.length));
+				int[][] runs = packBases(characters, packed);
+				out.writeInt(MAGIC);
+				out.writeUTF(reader.getName());
+				out.writeInt(characters.length);
+				out.writeInt(runs[0].length);
+				for (int r = 0; r < runs[0].length; r++) {
+					out.writeInt(runs[0][r]);
+					out.writeInt(runs[1][r]);
+				}
+				out.write(packed.array());
+			}
+		}
+	}
+
+	/**
+	 * Maps every sequence of a packed file. The bases stay in the mapped file
+	 * and are read from there
+	 *
+	 * @param packedFilename
+	 * @return sequences of the file, in order
+	 * @throws IOException
+	 */
+	public static List<PackedSequence> map(String packedFilename) throws IOException {
+		List<PackedSequence> sequences = new ArrayList<PackedSequence>();
+		try (RandomAccessFile file = new RandomAccessFile(packedFilename, "r")) {
+			FileChannel channel = file.getChannel();
+			while (file.getFilePointer() < file.length()) {
+				if (file.readInt() != MAGIC) {
+					throw new IOException("Invalid packed sequence file: " + packedFilename);
+				}
+				String name = file.readUTF();
+				int length = file.readInt();
+				if (length < 0 || length > MAX_LENGTH) {
+					throw new IOException("Invalid length " + length + " of sequence " + name + " in: "
+							+ packedFilename);
+				}
+				int numRuns = file.readInt();
+				int[] starts = new int[numRuns];
+				int[] ends = new int[numRuns];
+				long offset = file.getFilePointer();
+				if (numRuns > 0) {
+					IntBuffer runs = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * numRuns).asIntBuffer();
+					for (int r = 0; r < numRuns; r++) {
+						starts[r] = runs.get(2 * r);
+						ends[r] = runs.get(2 * r + 1);
+					}
+					offset += 8L * numRuns;
+				}
+				int numBytes = packedLength(length);
+				ByteBuffer packed = channel.map(FileChannel.MapMode.READ_ONLY, offset, numBytes);
+				sequences.add(new PackedSequence(name, length, packed, starts, ends));
+				file.seek(offset + numBytes);
+			}
+		}
+		return sequences;
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public void getBytes(int from, int to, byte[] dest, int destStart) {
+		for (int i = from; i < to; i++) {
+			int code = (packed.get(i >> 2) >> ((i & 3) << 1)) & 3;
+			dest[destStart + i - from] = BASES[code];
+		}
+		// runs of N overlapping the segment replace the stored codes
+		int r = Arrays.binarySearch(nEnds, from);
+		r = r >= 0 ? r + 1 : -r - 1;
+		for (; r < nStarts.length && nStarts[r] < to; r++) {
+			int start = Math.max(from, nStarts[r]);
+			int end = Math.min(to, nEnds[r]);
+			Arrays.fill(dest, destStart + start - from, destStart + end - from, (byte) 'N');
+		}
+	}
+
+	/**
+	 * Packs a fasta file. Arguments: fasta file, packed file
+	 */
+	public static void main(String[] args) throws Exception {
+		writeSequences(args[0], args[1]);
+	}
+
+}
@@ -0,0 +1,33 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Pattern of a candidate after it is cut to a shorter period, and the number
+ * of copies of the new pattern
+ */
+public class PatternCut {
+
+	// the pattern is the prefix of this size of the original pattern
+	private int size;
+
+	private double times;
+
+	public PatternCut(int size, double times) {
+		this.size = size;
+		this.times = times;
+	}
+
+	/**
+	 * @return size of the pattern, a prefix of the original one
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of copies of the pattern
+	 */
+	public double getTimes() {
+		return times;
+	}
+
+}
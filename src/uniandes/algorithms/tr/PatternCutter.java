@@ -0,0 +1,60 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Cuts the pattern of a candidate when it is made of copies of a shorter
+ * pattern. The primitive period of the pattern (the smallest size of a piece
+ * that repeated gives the whole pattern) is found in one pass with the prefix
+ * function of KMP, and the pattern is cut to one piece of that size. The
+ * border array is reused, so a cutter must be used by one thread at a time
+ */
+public class PatternCutter {
+
+	// prefix function of the pattern: length of the longest proper border
+	// of each prefix
+	private int[] border = new int[64];
+
+	/**
+	 * Finds the primitive period of a pattern
+	 * 
+	 * @param pattern
+	 * @param length
+	 *            number of characters of the pattern
+	 * @return smallest size of a piece that repeated gives the pattern
+	 */
+	public int primitivePeriod(byte[] pattern, int length) {
+		if (border.length < length) {
+			border = new int[Math.max(length, 2 * border.length)];
+		}
+		border[0] = 0;
+		for (int i = 1; i < length; i++) {
+			int b = border[i - 1];
+			while (b > 0 && pattern[i] != pattern[b]) {
+				b = border[b - 1];
+			}
+			if (pattern[i] == pattern[b]) {
+				b++;
+			}
+			border[i] = b;
+		}
+		int period = length - border[length - 1];
+		return length % period == 0 ? period : length;
+	}
+
+	/**
+	 * Cuts a pattern made of copies of a shorter one. The pattern becomes one
+	 * piece of its primitive period, and the number of copies is multiplied by
+	 * the number of pieces of the pattern
+	 * 
+	 * @param pattern
+	 * @param length
+	 *            number of characters of the pattern
+	 * @param times
+	 *            number of copies of the pattern
+	 * @return size of the new pattern and its number of copies
+	 */
+	public PatternCut cut(byte[] pattern, int length, double times) {
+		int period = primitivePeriod(pattern, length);
+		return new PatternCut(period, times * (length / period));
+	}
+
+}
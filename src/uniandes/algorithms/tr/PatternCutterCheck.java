@@ -0,0 +1,77 @@
+package uniandes.algorithms.tr;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks the size and the number of copies given by PatternCutter. Patterns
+ * made of several copies of units of periods 2, 3, 4, 5 and 6 must be cut to
+ * one unit, with the number of copies multiplied by the number of units, and
+ * patterns that are not made of copies must be kept. Prints one line per
+ * pattern and exits with status 1 if any of them is wrong
+ */
+public class PatternCutterCheck {
+
+	// units of periods 2 to 6, none of them made of copies of a shorter one
+	private static final String[] UNITS = { "AC", "ACG", "AGTC", "CGAGC", "AACGTT" };
+
+	// number of units of the patterns
+	private static final int[] NUM_UNITS = { 2, 3, 4, 5 };
+
+	// number of copies of the patterns
+	private static final double[] TIMES = { 2.0, 3.5, 15.0 };
+
+	// patterns that are not made of copies of a shorter one
+	private static final String[] PRIMITIVE = { "A", "AG", "AGTTAATTACT", "ACGACGACGAC", "ATGCTGCCCTT" };
+
+	private static int errors = 0;
+
+	public static void main(String[] args) {
+		PatternCutter cutter = new PatternCutter();
+		for (String unit : UNITS) {
+			for (int numUnits : NUM_UNITS) {
+				StringBuilder pattern = new StringBuilder();
+				for (int i = 0; i < numUnits; i++) {
+					pattern.append(unit);
+				}
+				for (double times : TIMES) {
+					check(cutter, pattern.toString(), times, unit.length(), times * numUnits);
+				}
+			}
+		}
+		for (String pattern : PRIMITIVE) {
+			for (double times : TIMES) {
+				check(cutter, pattern, times, pattern.length(), times);
+			}
+		}
+		// a run of the same character is cut to one character
+		check(cutter, "AAAAAAAAAAAA", 3.0, 1, 36.0);
+		if (errors > 0) {
+			System.out.println(errors + " wrong cuts");
+			System.exit(1);
+		}
+		System.out.println("All the cuts are right");
+	}
+
+	/**
+	 * Cuts one pattern and compares the result with the expected one
+	 *
+	 * @param cutter
+	 * @param pattern
+	 * @param times
+	 *            number of copies of the pattern
+	 * @param expectedSize
+	 * @param expectedTimes
+	 */
+	private static void check(PatternCutter cutter, String pattern, double times, int expectedSize,
+			double expectedTimes) {
+		byte[] bytes = pattern.getBytes(StandardCharsets.ISO_8859_1);
+		PatternCut cut = cutter.cut(bytes, bytes.length, times);
+		boolean right = cut.getSize() == expectedSize && cut.getTimes() == expectedTimes;
+		if (!right) {
+			errors++;
+		}
+		System.out.println(pattern + " x" + times + " -> " + cut.getSize() + " x" + cut.getTimes()
+				+ (right ? " ok" : " WRONG, expected " + expectedSize + " x" + expectedTimes));
+	}
+
+}
@@ -0,0 +1,74 @@
+package uniandes.algorithms.tr;
+
+/**
+ * Read only view of a pattern repeated a number of times, used as the ideal
+ * sequence of a tandem repeat without building it. Characters are read from
+ * the pattern, so the view takes the same memory whatever its length
+ */
+public class PeriodicSequence implements CharSequence {
+
+	private String pattern;
+
+	private int length;
+
+	/**
+	 * @param pattern
+	 *            must not be empty
+	 * @param length
+	 *            number of characters of the view, it can end in the middle
+	 *            of a copy
+	 */
+	public PeriodicSequence(String pattern, int length) {
+		this.pattern = pattern;
+		this.length = length;
+	}
+
+	/**
+	 * @param pattern
+	 * @param numCopies
+	 *            number of copies, a started copy is included whole
+	 * @return view of the pattern repeated numCopies times
+	 */
+	public static PeriodicSequence ofCopies(String pattern, double numCopies) {
+		int copies = Math.max(0, (int) Math.ceil(numCopies));
+		return new PeriodicSequence(pattern, copies * pattern.length());
+	}
+
+	/**
+	 * @return the pattern repeated by this view
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+		}
+		return pattern.charAt(index % pattern.length());
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", length: " + length);
+		}
+		StringBuilder answer = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			answer.append(pattern.charAt(i % pattern.length()));
+		}
+		return answer.toString();
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+
+}
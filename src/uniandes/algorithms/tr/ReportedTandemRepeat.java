@@ -0,0 +1,130 @@
+package uniandes.algorithms.tr;
+
+import java.util.List;
+
+/**
+ * Tandem repeat that passed the allignment criteria, with the information
+ * written to the output
+ */
+public class ReportedTandemRepeat {
+
+	private String sequenceName;
+
+	// first and last index of the repeat in the sequence
+	private int first;
+	private int last;
+
+	// distance between copies found by the candidate selector
+	private int period;
+
+	private double numCopies;
+
+	private int totalSize;
+
+	private String pattern;
+
+	// segment of the sequence covered by the repeat
+	private String sequence;
+
+	// pattern repeated numCopies times
+	private CharSequence idealSequence;
+
+	// allignment of the ideal sequence with the sequence
+	private List<CharSequence> alignment;
+
+	private int alignmentScore;
+
+	public ReportedTandemRepeat(String sequenceName, int first, int last, int period, double numCopies,
+			int totalSize, String pattern, String sequence, CharSequence idealSequence, List<CharSequence> alignment, int alignmentScore) {
+		this.sequenceName = sequenceName;
+		this.first = first;
+		this.last = last;
+		this.period = period;
+		this.numCopies = numCopies;
+		this.totalSize = totalSize;
+		this.pattern = pattern;
+		this.sequence = sequence;
+		this.idealSequence = idealSequence;
+		this.alignment = alignment;
+		this.alignmentScore = alignmentScore;
+	}
+
+	/**
+	 * @return the sequenceName
+	 */
+	public String getSequenceName() {
+		return sequenceName;
+	}
+
+	/**
+	 * @return the first
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return the last
+	 */
+	public int getLast() {
+		return last;
+	}
+
+	/**
+	 * @return the period
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return the numCopies
+	 */
+	public double getNumCopies() {
+		return numCopies;
+	}
+
+	/**
+	 * 
+	 * @return Total size of the TR
+	 */
+	public int getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * @return the pattern
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return the sequence
+	 */
+	public String getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the idealSequence
+	 */
+	public CharSequence getIdealSequence() {
+		return idealSequence;
+	}
+
+	/**
+	 * @return the alignment
+	 */
+	public List<CharSequence> getAlignment() {
+		return alignment;
+	}
+
+	/**
+	 * @return the alignmentScore
+	 */
+	public int getAlignmentScore() {
+		return alignmentScore;
+	}
+
+}
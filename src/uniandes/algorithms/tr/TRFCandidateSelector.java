@@ -1,14 +1,21 @@
 package uniandes.algorithms.tr;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -17,15 +24,12 @@ import ngsep.sequences.PairwiseAlignmentAffineGap;
 
 public class TRFCandidateSelector {
 
-	private String sequence;
+	// upper case characters of the sequence
+	private NucleotideSequence sequence;
 
-	// probe p, list of occurrences
-	private HashMap<String, ArrayList<Integer>> historyList;
-
-	// distance d, list of matches (last index)
-	private HashMap<Integer, ArrayList<Integer>> distanceList;
-
-	// probability of a match, can be 0.8 or 0.75
+	// probability of a match. TRF tables are used for 0.8 and 0.75 with the
+	// tuple sizes of TRF, other values use the tables computed by
+	// ThresholdTables
 	private double matchProbability;
 
 	// probability of indel, typically 0.1
@@ -48,6 +52,53 @@ public class TRFCandidateSelector {
 
 	private int missScore;
 
+	// number of threads used to scan chunks of the sequence
+	private int numThreads;
+
+	// runs the chunks of the sequence, shared with other selectors, null to
+	// use the common pool
+	private ExecutorService pool;
+
+	// minimum length of a chunk scanned by one thread
+	public static final int MIN_CHUNK_LENGTH = 1 << 16;
+
+	// distance d, maximum number of positions to the left and right of d
+	// checked for indels
+	private int[] maxDeltas;
+
+	// criteria for every distance, computed once
+	private ThresholdTables thresholds;
+
+	// aligners and pattern cutter used by allignCandidate, created on first
+	// use
+	private SimpleEditDistanceMeasure aligner;
+	private BandedAligner copyAligner;
+	private PatternCutter cutter;
+	private WraparoundAligner wraparoundAligner;
+
+	// final allignments are computed with the wraparound aligner instead of
+	// alligning the sequence with its ideal sequence
+	private boolean wraparoundAlignment = false;
+
+	// reported repeats keep their sequence, ideal sequence and allignment,
+	// which are not needed by every writer
+	private boolean keepAlignments = true;
+
+	// tuple sizes used to find candidates, all of them in the same pass
+	private int[] tupleSizes = { 5 };
+
+	// tuple size index t, smallest and largest distance evaluated with it
+	private int[] tupleMinDistances;
+	private int[] tupleMaxDistances;
+
+	// tuple sizes of a scanner, scanners not being used. They are kept
+	// between scans so that their buffers are reused
+	private HashMap<String, ArrayDeque<CandidateScanner>> idleScanners = new HashMap<String, ArrayDeque<CandidateScanner>>();
+
+	// tuple sizes used by TRF (4 up to distance 29, 5 up to 159 and 7 for
+	// the rest). The TRF tables of sum of heads criteria are used for them
+	private static final int[] TRF_TUPLE_SIZES = { 4, 5, 7 };
+
 	// sum of data criteria for pm = 0.8, retrieved from
 	// https://github.com/Benson-Genomics-Lab/TRF/blob/master/src/tr30dat.c
 	int sumdata80[] = { 0, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 5, 6, 6, 7, 8, 8, 9, 9, 6, 6,
@@ -237,8 +288,6 @@ public class TRFCandidateSelector {
 			559, 559, 559, 560, 560, 560, 561, 561, 561, 562, 562, 562, 563, 563, 563, 564, 564, 564, 564, 565, 565,
 			565, 566, 566, 566, 567 };
 
-	List<Integer> primeNumbers;
-
 	/**
 	 * Initializes this instance of a candidate selector
 	 * 
@@ -247,7 +296,7 @@ public class TRFCandidateSelector {
 	 * @param sequenceName
 	 *            name of the sequence
 	 * @param matchProbability
-	 *            can be 0.8 or 0.75
+	 *            between 0 and 1, TRF uses 0.8 or 0.75
 	 * @param indelProbability
 	 *            typically 0.1
 	 * @param maxSize
@@ -257,245 +306,405 @@ public class TRFCandidateSelector {
 	 */
 	public TRFCandidateSelector(String sequence, String sequenceName, double matchProbability, double indelProbability,
 			int maxSize, int minimumAlignmentScore, int matchScore, int missScore) {
+		this(sequence, sequenceName, matchProbability, indelProbability, maxSize, minimumAlignmentScore, matchScore,
+				missScore, 1);
+	}
+
+	/**
+	 * Initializes this instance of a candidate selector scanning chunks of
+	 * the sequence in parallel
+	 * 
+	 * @param sequence
+	 *            sequence to be analyzed
+	 * @param sequenceName
+	 *            name of the sequence
+	 * @param matchProbability
+	 *            between 0 and 1, TRF uses 0.8 or 0.75
+	 * @param indelProbability
+	 *            typically 0.1
+	 * @param maxSize
+	 *            maximum size of the pattern
+	 * @param minimumAlignmentScore
+	 *            minimum score for a pattern to be reported
+	 * @param numThreads
+	 *            number of threads used to scan the sequence
+	 */
+	public TRFCandidateSelector(String sequence, String sequenceName, double matchProbability, double indelProbability,
+			int maxSize, int minimumAlignmentScore, int matchScore, int missScore, int numThreads) {
+		this(sequence.getBytes(StandardCharsets.ISO_8859_1), sequenceName, matchProbability, indelProbability,
+				maxSize, minimumAlignmentScore, matchScore, missScore, numThreads);
+	}
+
+	/**
+	 * Initializes this instance of a candidate selector on the characters of
+	 * a sequence, as read by FastaSequenceReader. The array is not copied
+	 * 
+	 * @param sequence
+	 *            upper case characters of the sequence to be analyzed
+	 * @param sequenceName
+	 *            name of the sequence
+	 * @param matchProbability
+	 *            between 0 and 1, TRF uses 0.8 or 0.75
+	 * @param indelProbability
+	 *            typically 0.1
+	 * @param maxSize
+	 *            maximum size of the pattern
+	 * @param minimumAlignmentScore
+	 *            minimum score for a pattern to be reported
+	 * @param numThreads
+	 *            number of threads used to scan the sequence
+	 */
+	public TRFCandidateSelector(byte[] sequence, String sequenceName, double matchProbability,
+			double indelProbability, int maxSize, int minimumAlignmentScore, int matchScore, int missScore,
+			int numThreads) {
+		this(new ByteArraySequence(sequence), sequenceName, matchProbability, indelProbability, maxSize,
+				minimumAlignmentScore, matchScore, missScore, numThreads);
+	}
+
+	/**
+	 * Initializes this instance of a candidate selector on a sequence stored
+	 * in any format, for example a PackedSequence mapped from a file
+	 * 
+	 * @param sequence
+	 *            sequence to be analyzed
+	 * @param sequenceName
+	 *            name of the sequence
+	 * @param matchProbability
+	 *            between 0 and 1, TRF uses 0.8 or 0.75
+	 * @param indelProbability
+	 *            typically 0.1
+	 * @param maxSize
+	 *            maximum size of the pattern
+	 * @param minimumAlignmentScore
+	 *            minimum score for a pattern to be reported
+	 * @param numThreads
+	 *            number of threads used to scan the sequence
+	 */
+	public TRFCandidateSelector(NucleotideSequence sequence, String sequenceName, double matchProbability,
+			double indelProbability, int maxSize, int minimumAlignmentScore, int matchScore, int missScore,
+			int numThreads) {
+		this(matchProbability, indelProbability, maxSize, minimumAlignmentScore, matchScore, missScore, numThreads);
+		scan(sequence, sequenceName);
+	}
+
+	/**
+	 * Initializes this instance of a candidate selector without a sequence.
+	 * Sequences are given later to scan, reusing the buffers of this instance
+	 * 
+	 * @param matchProbability
+	 *            between 0 and 1, TRF uses 0.8 or 0.75
+	 * @param indelProbability
+	 *            typically 0.1
+	 * @param maxSize
+	 *            maximum size of the pattern
+	 * @param minimumAlignmentScore
+	 *            minimum score for a pattern to be reported
+	 * @param numThreads
+	 *            number of threads used to scan and allign each sequence
+	 */
+	public TRFCandidateSelector(double matchProbability, double indelProbability, int maxSize,
+			int minimumAlignmentScore, int matchScore, int missScore, int numThreads) {
 
 		// initializes empty atributes
 		this.indelProbability = indelProbability;
 		this.matchProbability = matchProbability;
-		this.sequenceName = sequenceName;
-		this.sequence = sequence;
 		this.matchScore = matchScore;
 		this.missScore = missScore;
-		this.historyList = new HashMap<String, ArrayList<Integer>>();
-		this.distanceList = new HashMap<Integer, ArrayList<Integer>>();
+		this.numThreads = numThreads;
 		this.allCandidates = new ArrayList<TandemRepeat>();
 		this.minimumAlignmentScore = minimumAlignmentScore;
-		int[] tupleSizes = { 5 };
 		this.maxPatternSize = maxSize;
-		HashMap<Integer, TreeMap<Integer, ArrayList<TandemRepeat>>> initialC = null;
-		ArrayList<TandemRepeat> candidate = null;
 
-		int mid = maxSize / 2;
-		this.primeNumbers = primeNumbersBruteForce(mid);
-		long time = System.currentTimeMillis();
+		this.thresholds = new ThresholdTables(matchProbability, indelProbability, maxSize);
+		this.maxDeltas = thresholds.getMaxDeltas();
+		setTupleSizes(tupleSizes);
+	}
 
-		// in case of multiple tuple sizes, candidates are searched for each
-		// tuple size
-		for (int i : tupleSizes) {
-			initialC = getCandidates(i);
-			candidate = refineCandidates(initialC);
-			candidate.sort((o1, o2) -> Integer.compare(o1.getFirst(), o2.getFirst()));
-			removeOverlaps(candidate);
-			this.allCandidates.addAll(candidate);
-			initialC = null;
-			candidate = null;
-
-		}
-		// after finding the candidates, overlap tandem repeats are removed
-		this.allCandidates.sort((o1, o2) -> Integer.compare(o1.getFirst(), o2.getFirst()));
-		removeOverlaps(this.allCandidates);
+	/**
+	 * Finds the candidates of a sequence, replacing the ones of the previous
+	 * sequence. Must not be called by several threads at the same time
+	 * 
+	 * @param sequence
+	 *            sequence to be analyzed
+	 * @param sequenceName
+	 *            name of the sequence
+	 * @return candidates found
+	 */
+	public ArrayList<TandemRepeat> scan(NucleotideSequence sequence, String sequenceName) {
+		ArrayList<TandemRepeat> candidates = new ArrayList<TandemRepeat>();
+		long time = System.currentTimeMillis();
+		scan(sequence, sequenceName, candidates::add);
+		this.allCandidates = candidates;
 		time = System.currentTimeMillis() - time;
 		time = time / 1000;
 		System.out.println("Time searching candidates: " + time + " secs");
+		return allCandidates;
+	}
 
+	/**
+	 * Finds the candidates of a sequence and passes each one to the consumer
+	 * as soon as it is refined and no overlapping candidate can be found
+	 * after it, so that only the candidates of the current region are kept in
+	 * memory. Must not be called by several threads at the same time
+	 * 
+	 * @param sequence
+	 *            sequence to be analyzed
+	 * @param sequenceName
+	 *            name of the sequence
+	 * @param consumer
+	 *            receives the candidates sorted by first index, in the calling
+	 *            thread
+	 */
+	public void scan(NucleotideSequence sequence, String sequenceName, Consumer<TandemRepeat> consumer) {
+		this.sequence = sequence;
+		this.sequenceName = sequenceName;
+		this.allCandidates = new ArrayList<TandemRepeat>();
+		// candidates of all the tuple sizes are found in the same pass,
+		// refined and filtered by tuple size, then overlap tandem repeats of
+		// different tuple sizes are removed
+		OverlapFilter filter = new OverlapFilter(consumer);
+		CandidateRefiner refiner = new CandidateRefiner(maxPatternSize, maxDeltas, tupleSizes.length, filter);
+		scanCandidates(refiner);
+		refiner.finish();
+		filter.finish();
 	}
 
 	/**
-	 * Method that finds candidates using TRF definition mainly
+	 * Method that finds candidates using TRF definition mainly. If more than
+	 * one thread is used, the sequence is split in chunks that are scanned in
+	 * parallel and merged
 	 * 
 	 * @param kTupleSize
-	 * @return hashmap containing as keys distance of the TR, values another
-	 *         treemap containing index where the match was reported and list of
-	 *         TR at that index
-	 */
-	public HashMap<Integer, TreeMap<Integer, ArrayList<TandemRepeat>>> getCandidates(int kTupleSize) {
-		// Answer structure
-		HashMap<Integer, TreeMap<Integer, ArrayList<TandemRepeat>>> candidates = new HashMap<Integer, TreeMap<Integer, ArrayList<TandemRepeat>>>();
-		ArrayList<Integer> occurrences = null;
-		ArrayList<Integer> matchesAtD = null;
-		ArrayList<TandemRepeat> tra = null;
-		TreeMap<Integer, ArrayList<TandemRepeat>> indexes = null;
-		// loop over the sequence to find candidates
-		for (int i = kTupleSize - 1; i < sequence.length(); i++) {
-			// i final index of probe p, inclusive
-			String probe = sequence.substring(i - kTupleSize + 1, i + 1);
-			// check previous occurrences of this probe
-			occurrences = historyList.getOrDefault(probe, new ArrayList<Integer>());
-			// now we scan for occurrences of probe
-			if (occurrences.size() > 0) { // contains occurrences of this probe
-				for (int u = occurrences.size() - 1; u >= 0; u--) {
-					int j = occurrences.get(u);
-					int d = i - j;
-					// If d is greater than max size we will not calculate this
-					// tandem repeat
-					if (d > maxPatternSize) {
-						break;
-					} else {
-						int totalMatches = 0;
-						int leftMostIndex = Integer.MAX_VALUE;
-						// Max delta distance to the left and right to check for
-						// indels
-						double maxDeltaDistance = 2.3 * Math.sqrt(indelProbability * d);
-						int maxDelta = (int) Math.floor(maxDeltaDistance);
-						// We get matches at this distance d
-						matchesAtD = distanceList.getOrDefault(d, new ArrayList<Integer>());
-						// We add this match index to the list
-						matchesAtD.add(i);
-						int maxRange = i - d + 1;
-						// matches that happened before i-d+1 are removed, d
-						// could be taken as a sliding window
-						matchesAtD.removeIf(s -> s < maxRange);
-						// We update distances list with new matches
-						distanceList.put(d, matchesAtD);
-						// Now we search for the minimum element in matches
-						// array
-						Integer min = matchesAtD.stream().mapToInt(v -> v).min().orElse(Integer.MAX_VALUE) - kTupleSize
-								+ 1; // moderate
-						if (min < leftMostIndex) {
-							leftMostIndex = min;
-						}
-						// we calculate sum of heads for this probe
-						totalMatches += matchesAtD.size() * kTupleSize;
-						// update nearby distances list
-						for (int k = 1; k < maxDelta + 1; k++) {
-							int dleft = d - k;
-							int dright = d + k;
-							// if a match was found at left
-							if (dleft > 0) {
-								// perform same operations for d
-								if (distanceList.containsKey(dleft)) {
-									matchesAtD = distanceList.get(dleft);
-									matchesAtD.removeIf(s -> s < maxRange);
-									distanceList.put(dleft, matchesAtD);
-									totalMatches += matchesAtD.size() * kTupleSize;
-									min = matchesAtD.stream().mapToInt(v -> v).min().orElse(Integer.MAX_VALUE)
-											- kTupleSize + 1;
-									if (min < leftMostIndex) {
-										leftMostIndex = min;
-									}
-								}
-							}
-							// if a match was found at right
-							if (dright > 0) {
-								// perform same operations for d
-								if (distanceList.containsKey(dright)) {
-									matchesAtD = distanceList.get(dright);
-									matchesAtD.removeIf(s -> s < maxRange);
-									distanceList.put(dright, matchesAtD);
-									totalMatches += matchesAtD.size() * kTupleSize;
-									min = matchesAtD.stream().mapToInt(v -> v).min().orElse(Integer.MAX_VALUE)
-											- kTupleSize + 1;
-									if (min < leftMostIndex) {
-										leftMostIndex = min;
-									}
-								}
-							}
-						}
-						// now we compute apparent size to test criteria
-						int apparentSize = i - leftMostIndex + 1;
-						// limit apparent size
-						if (apparentSize > d) {
-							apparentSize = d;
-						}
-						// compute and test criteria
-						int apTh = computeApparentSizeThreshold(d);
-						int suOh = computeSumOfHeadsThreshold(d, kTupleSize);
-						if (totalMatches >= suOh && apparentSize >= apTh) {
-							// if TR matches criteria it is created
-							TandemRepeat trc = new TandemRepeat(j + 1, i, apparentSize, totalMatches);
-							indexes = candidates.getOrDefault(apparentSize,
-									new TreeMap<Integer, ArrayList<TandemRepeat>>());
-							// new candidate is added in index i
-							tra = indexes.getOrDefault(i, new ArrayList<TandemRepeat>());
-							tra.add(trc);
-							indexes.put(i, tra);
-							// tr with apparent size is added to the answer
-							// hashmap
-							candidates.put(apparentSize, indexes);
+	 * @return candidates by apparent size, sorted by last index in each
+	 *         apparent size
+	 */
+	public CandidateBuffer getCandidates(int kTupleSize) {
+		CandidateBuffer candidates = new CandidateBuffer(maxPatternSize);
+		scanCandidates(new int[] { kTupleSize }, new int[] { 1 }, new int[] { maxPatternSize }, candidates);
+		return candidates;
+	}
+
+	/**
+	 * Finds the candidates of the sequence for all the tuple sizes in one
+	 * pass and passes them to the consumer in increasing order of last index.
+	 * If more than one thread is used, the sequence is split in chunks that
+	 * are scanned in parallel, and the candidates of each chunk are passed in
+	 * order as soon as the chunk and the ones before it are finished
+	 * 
+	 * @param consumer
+	 *            receives the candidates and the index of the tuple size that
+	 *            found them, always in the calling thread
+	 */
+	public void scanCandidates(ObjIntConsumer<TandemRepeat> consumer) {
+		scanCandidates((first, last, apparentSize, sumOfHeads, t) -> consumer
+				.accept(new TandemRepeat(first, last, apparentSize, sumOfHeads), t));
+	}
+
+	/**
+	 * Finds the candidates of the sequence for all the tuple sizes in one
+	 * pass and passes them to the consumer as primitive values, see
+	 * scanCandidates(ObjIntConsumer)
+	 * 
+	 * @param consumer
+	 *            receives the candidates and the index of the tuple size that
+	 *            found them, always in the calling thread
+	 */
+	public void scanCandidates(CandidateConsumer consumer) {
+		scanCandidates(tupleSizes, tupleMinDistances, tupleMaxDistances, consumer);
+	}
+
+	/**
+	 * Finds the candidates of the sequence for the given tuple sizes, each
+	 * one evaluating the distances of its range
+	 * 
+	 * @param kTupleSizes
+	 * @param minDistances
+	 * @param maxDistances
+	 * @param consumer
+	 */
+	private void scanCandidates(int[] kTupleSizes, int[] minDistances, int[] maxDistances,
+			CandidateConsumer consumer) {
+		int length = sequence.length();
+		int chunkLength = Math.max(MIN_CHUNK_LENGTH, (length + 4 * numThreads - 1) / (4 * numThreads));
+		if (numThreads <= 1 || length <= chunkLength) {
+			CandidateScanner scanner = takeScanner(kTupleSizes, minDistances, maxDistances);
+			try {
+				scanner.scan(sequence, 0, length, consumer);
+			} finally {
+				releaseScanner(kTupleSizes, minDistances, maxDistances, scanner);
+			}
+			return;
+		}
+		ExecutorService pool = getPool();
+		// chunks own disjoint last indexes, so passing their candidates in
+		// order gives the same candidates as a single scan. Only a few chunks
+		// ahead of the first pending one are scanned
+		LinkedList<Future<ScannedChunk>> pending = new LinkedList<Future<ScannedChunk>>();
+		try {
+			int from = 0;
+			while (from < length || !pending.isEmpty()) {
+				while (from < length && pending.size() < 2 * numThreads) {
+					int start = from;
+					int end = Math.min(length, from + chunkLength);
+					pending.add(pool.submit(() -> {
+						ScannedChunk chunk = new ScannedChunk();
+						CandidateScanner scanner = takeScanner(kTupleSizes, minDistances, maxDistances);
+						try {
+							scanner.scan(sequence, start, end, chunk);
+						} finally {
+							releaseScanner(kTupleSizes, minDistances, maxDistances, scanner);
 						}
-					}
+						return chunk;
+					}));
+					from = end;
 				}
+				pending.removeFirst().get().passTo(consumer);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			for (Future<ScannedChunk> chunk : pending) {
+				chunk.cancel(true);
 			}
-			// finally we update historyList list
-			occurrences.add(i);
-			historyList.put(probe, occurrences);
+			throw new RuntimeException("Error scanning chunks of sequence " + sequenceName, e);
 		}
+	}
 
-		return candidates;
+	/**
+	 * Candidates found in a chunk, with the index of the tuple size that found
+	 * each one, in the order they were found. The fields of each candidate are
+	 * stored together in one int array
+	 */
+	private static class ScannedChunk implements CandidateConsumer {
+
+		// first, last, apparent size, sum of heads and tuple index of each
+		// candidate
+		private int[] fields = new int[5 * 64];
+
+		private int length;
+
+		@Override
+		public void accept(int first, int last, int apparentSize, int sumOfHeads, int tupleIndex) {
+			if (length + 5 > fields.length) {
+				fields = Arrays.copyOf(fields, 2 * fields.length);
+			}
+			fields[length] = first;
+			fields[length + 1] = last;
+			fields[length + 2] = apparentSize;
+			fields[length + 3] = sumOfHeads;
+			fields[length + 4] = tupleIndex;
+			length += 5;
+		}
+
+		/**
+		 * Passes the candidates of the chunk in the order they were found
+		 * 
+		 * @param consumer
+		 */
+		private void passTo(CandidateConsumer consumer) {
+			for (int c = 0; c < length; c += 5) {
+				consumer.accept(fields[c], fields[c + 1], fields[c + 2], fields[c + 3], fields[c + 4]);
+			}
+		}
 	}
 
 	/**
-	 * This method remove redundant candidates
+	 * Returns the number of positions before a chunk that must be scanned so
+	 * that candidates found inside the chunk are the same found scanning the
+	 * whole sequence
 	 * 
-	 * @param candidates
-	 * @return
+	 * @param kTupleSize
+	 * @return overlap with the previous chunk
 	 */
-	public ArrayList<TandemRepeat> refineCandidates(
-			HashMap<Integer, TreeMap<Integer, ArrayList<TandemRepeat>>> candidates) {
-		ArrayList<TandemRepeat> answer = new ArrayList<TandemRepeat>();
+	public int getChunkOverlap(int kTupleSize) {
+		int[] kTupleSizes = { kTupleSize };
+		int[] minDistances = { 1 };
+		int[] maxDistances = { maxPatternSize };
+		CandidateScanner scanner = takeScanner(kTupleSizes, minDistances, maxDistances);
+		int overlap = scanner.getOverlap();
+		releaseScanner(kTupleSizes, minDistances, maxDistances, scanner);
+		return overlap;
+	}
 
-		// refine candidates of same apparent size
-		for (Integer apSize : candidates.keySet()) {
-			boolean notEnough = true;
-			while (notEnough) {
-				// matches with apsize d at index i
-				TreeMap<Integer, ArrayList<TandemRepeat>> indexes = candidates.get(apSize);
-
-				double maxDeltaDistance = 2.3 * Math.sqrt(indelProbability * apSize);
-				// maximum size at which there could be a match
-				int maxDelta = (int) Math.floor(maxDeltaDistance);
-				boolean search = true;
-				int original = indexes.lastKey(); // we know original index
-
-				int largest = indexes.lastKey(); // we know original index
-				int numCopies = 1;
-				ArrayList<TandemRepeat> miniCandi = indexes.get(original);
-				TandemRepeat finalC = miniCandi.get(0);
-				int lowerborder = largest - apSize - maxDelta;
-				int upperborder = largest - apSize;
-				indexes.remove(largest);
-				int beginning = finalC.getPatternBeginning() - finalC.getDistance(); // default
-																						// beginning
-				while (search) {
-					// i dint find more redundant TR at this distance
-					if (indexes.keySet().isEmpty()) {
-						search = false;
-						notEnough = false; // is enough
-					} else {
-						largest = indexes.lastKey(); // next one
-						if (largest > upperborder) { // this Tr is redundant if
-														// it is above the
-														// border
-							indexes.remove(largest);
-						} else if (largest >= lowerborder && largest <= upperborder) { // count,
-																						// found
-																						// another
-																						// occurence
-							// compute beginning
-							beginning = indexes.get(largest).get(0).getPatternBeginning() - apSize;
-							// update num copies
-							numCopies++;
-							// update border
-							lowerborder = largest - apSize - maxDelta;
-							upperborder = largest - apSize;
-
-						} else { // there is another TR at lower index
-							candidates.put(apSize, indexes);
-							break;
-						}
+	/**
+	 * Finds the candidates whose last index is inside the given chunk. The
+	 * sequence is scanned from getChunkOverlap positions before the chunk
+	 * 
+	 * @param kTupleSize
+	 * @param from
+	 *            first index of the chunk
+	 * @param to
+	 *            index after the end of the chunk
+	 * @return candidates by apparent size, sorted by last index in each
+	 *         apparent size
+	 */
+	public CandidateBuffer getCandidates(int kTupleSize, int from, int to) {
+		int[] kTupleSizes = { kTupleSize };
+		int[] minDistances = { 1 };
+		int[] maxDistances = { maxPatternSize };
+		CandidateScanner scanner = takeScanner(kTupleSizes, minDistances, maxDistances);
+		try {
+			return scanner.scan(sequence, from, to);
+		} finally {
+			releaseScanner(kTupleSizes, minDistances, maxDistances, scanner);
+		}
+	}
 
-					}
+	/**
+	 * Takes an idle scanner for the given tuple sizes and distance ranges,
+	 * creating it if there is none
+	 * 
+	 * @param kTupleSizes
+	 * @param minDistances
+	 * @param maxDistances
+	 * @return scanner used only by the caller until it is released
+	 */
+	private synchronized CandidateScanner takeScanner(int[] kTupleSizes, int[] minDistances, int[] maxDistances) {
+		ArrayDeque<CandidateScanner> idle = idleScanners.get(scannerKey(kTupleSizes, minDistances, maxDistances));
+		if (idle != null && !idle.isEmpty()) {
+			return idle.pop();
+		}
+		// criteria for each distance are looked up once per scanner
+		int[][] sumOfHeadsThresholds = new int[kTupleSizes.length][maxPatternSize + 1];
+		for (int d = 1; d <= maxPatternSize; d++) {
+			for (int t = 0; t < kTupleSizes.length; t++) {
+				sumOfHeadsThresholds[t][d] = computeSumOfHeadsThreshold(d, kTupleSizes[t]);
+			}
+		}
+		return new CandidateScanner(kTupleSizes, minDistances, maxDistances, maxPatternSize, maxDeltas,
+				sumOfHeadsThresholds, thresholds.getApparentSizeThresholds());
+	}
 
-				}
-				// for definition if a TR pass criteria num copies is at least
-				// of 2
-				numCopies++;
-				// update TR and add it to answer
-				finalC.setNumCopies(numCopies);
-				finalC.setFirst(beginning);
-				answer.add(finalC);
+	/**
+	 * Returns a scanner taken with takeScanner so that it can be reused
+	 * 
+	 * @param kTupleSizes
+	 * @param minDistances
+	 * @param maxDistances
+	 * @param scanner
+	 */
+	private synchronized void releaseScanner(int[] kTupleSizes, int[] minDistances, int[] maxDistances,
+			CandidateScanner scanner) {
+		idleScanners.computeIfAbsent(scannerKey(kTupleSizes, minDistances, maxDistances),
+				k -> new ArrayDeque<CandidateScanner>()).push(scanner);
+	}
 
-			}
+	private static String scannerKey(int[] kTupleSizes, int[] minDistances, int[] maxDistances) {
+		return Arrays.toString(kTupleSizes) + Arrays.toString(minDistances) + Arrays.toString(maxDistances);
+	}
+
+	/**
+	 * This method remove redundant candidates, one backward pass over the
+	 * candidates of each apparent size
+	 * 
+	 * @param candidates
+	 *            they are removed
+	 * @return refined candidates
+	 */
+	public ArrayList<TandemRepeat> refineCandidates(CandidateBuffer candidates) {
+		ArrayList<TandemRepeat> answer = new ArrayList<TandemRepeat>();
 
+		// refine candidates of same apparent size
+		for (int apSize = 1; apSize <= candidates.getMaxPatternSize(); apSize++) {
+			candidates.refine(apSize, maxDeltas[apSize], answer);
 		}
 
 		return answer;
@@ -503,271 +712,377 @@ public class TRFCandidateSelector {
 
 	/**
 	 * Method that removes tandem repeats of different size and num copies
-	 * overlapping the same section
+	 * overlapping the same section, in one pass over the candidates
 	 * 
 	 * @param candidates
+	 *            sorted by first index
 	 */
 	public void removeOverlaps(ArrayList<TandemRepeat> candidates) {
-		if (candidates.size() == 0)
-			return;
-		TandemRepeat bestC = candidates.get(0);
-		int indexBest = 0;
-		// minimum index of section
-		int left = bestC.getFirst();
-		// maximum index of section
-		int right = bestC.getLast();
-		int size = bestC.getTotalSize();
-		for (int i = 1; i < candidates.size(); i++) {
-			TandemRepeat trc = candidates.get(i);
-			int begin = trc.getFirst();
-			int end = trc.getLast();
-			// if the 2 TR are overlapped we update ref indexes
-			if (isOverlapped(left, right, begin, end)) {
-				if (begin < left) {
-					left = begin;
-				}
-				if (end > right) {
-					right = end;
-				}
-				if (trc.getTotalSize() >= size) { // best, covering more
-													// distance
-					// update best candidate
-					candidates.remove(indexBest);
-					size = trc.getTotalSize();
-					i--;
-					indexBest = i;
-				} else {
-					candidates.remove(i);
-					i--;
+		int n = candidates.size();
+		// candidates kept are written over the beginning of the list, never
+		// after the one being read, and the rest is cut at the end
+		int[] kept = { 0 };
+		OverlapFilter filter = new OverlapFilter(trc -> candidates.set(kept[0]++, trc));
+		for (int i = 0; i < n; i++) {
+			filter.accept(candidates.get(i));
+		}
+		filter.finish();
+		candidates.subList(kept[0], n).clear();
+	}
+
+	/**
+	 * This method allign candidates with ideal sequence and refine num copies
+	 * 
+	 * @param candidates
+	 * @return reported tandem repeats, in the order of the candidates
+	 */
+	public List<ReportedTandemRepeat> allignCandidates(ArrayList<TandemRepeat> candidates) {
+		// candidates are split in blocks alligned in parallel, each block with
+		// its own aligner and list of reported repeats
+		int numBlocks = 1;
+		if (numThreads > 1) {
+			numBlocks = Math.min(candidates.size(), 4 * numThreads);
+		}
+		List<Callable<List<ReportedTandemRepeat>>> blocks = new ArrayList<>();
+		for (int b = 0; b < numBlocks; b++) {
+			int start = (int) ((long) candidates.size() * b / numBlocks);
+			int end = (int) ((long) candidates.size() * (b + 1) / numBlocks);
+			blocks.add(() -> {
+				SimpleEditDistanceMeasure a = new SimpleEditDistanceMeasure();
+				BandedAligner copyAligner = new BandedAligner();
+				PatternCutter cutter = new PatternCutter();
+				WraparoundAligner wraparound = newWraparoundAligner();
+				List<ReportedTandemRepeat> reported = new ArrayList<>();
+				for (int i = start; i < end; i++) {
+					ReportedTandemRepeat repeat = allignCandidate(candidates.get(i), a, copyAligner, cutter,
+							wraparound);
+					if (repeat != null) {
+						reported.add(repeat);
+					}
 				}
-			} else {
-				// this is a different TR, we reset ref variables
-				bestC = candidates.get(i);
-				indexBest = i;
-				left = bestC.getFirst();
-				right = bestC.getLast();
-				size = bestC.getTotalSize();
+				return reported;
+			});
+		}
+		if (numBlocks <= 1) {
+			try {
+				return numBlocks == 0 ? new ArrayList<>() : blocks.get(0).call();
+			} catch (Exception e) {
+				throw new RuntimeException("Error alligning candidates of sequence " + sequenceName, e);
 			}
-
+		}
+		try {
+			// blocks are joined in the order of the candidates
+			List<ReportedTandemRepeat> reported = new ArrayList<>();
+			for (Future<List<ReportedTandemRepeat>> block : getPool().invokeAll(blocks)) {
+				reported.addAll(block.get());
+			}
+			return reported;
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException("Error alligning candidates of sequence " + sequenceName, e);
 		}
 	}
 
 	/**
-	 * This method allign candidates with ideal sequence and refine num copies
+	 * This method allign candidates with ideal sequence and refine num copies,
+	 * writing the reported tandem repeats to the given writer
 	 * 
 	 * @param candidates
+	 * @param writer
+	 *            destination of the reported tandem repeats, it is not closed
 	 * @throws IOException
 	 */
-	public void allignCandidates(ArrayList<TandemRepeat> candidates) throws IOException {
-
-		SimpleEditDistanceMeasure a = new SimpleEditDistanceMeasure();
-		PrintWriter pw = new PrintWriter(new FileWriter("data\\outTR.txt", true));
-		String line = "";
-		for (TandemRepeat trCandidate : candidates) {
-			// we compute pattern
-			String pattern = sequence.substring(trCandidate.getPatternBeginning(), trCandidate.getLast() + 1);
-			double times = trCandidate.getNumCopies();
-
-			String realseq = sequence.substring(trCandidate.getFirst(), trCandidate.getLast() + 1);
-
-			String[] result = cutPattern(pattern, times);
-			pattern = result[0];
-			times = Double.parseDouble(result[1]);
-
-			// extend sequence to get times
-			int beg = trCandidate.getFirst();
-			int patternSize = pattern.length();
-			List<CharSequence> temp = null;
-			boolean keepGoing = true;
-
-			// extend backwards N times in case algorithm didn't find these
-			// copies
-			beg -= patternSize;
-			while (keepGoing) {
-
-				if (beg >= 0) {
-					temp = a.pairwiseAlignment(pattern, sequence.substring(beg, beg + patternSize));
-					String s1 = temp.get(0).toString();
-					String s2 = temp.get(1).toString();
-					int ham = hammingDist(s1, s2);
-
-					double limit = 0.4 * s1.length();
-
-					if (ham <= limit) {
-						times++;
-						beg -= patternSize;
-					} else {
-						keepGoing = false;
-					}
+	public void allignCandidates(ArrayList<TandemRepeat> candidates, TandemRepeatWriter writer) throws IOException {
+		boolean keep = keepAlignments;
+		keepAlignments = keep && writer.writesAlignments();
+		try {
+			for (ReportedTandemRepeat repeat : allignCandidates(candidates)) {
+				writer.write(repeat);
+			}
+		} finally {
+			keepAlignments = keep;
+		}
+	}
+
+	/**
+	 * Alligns one candidate of the last sequence scanned with its ideal
+	 * sequence and refines its num copies. Used to allign the candidates
+	 * passed by scan while the scan goes on, in the same thread
+	 * 
+	 * @param trCandidate
+	 * @return the tandem repeat if it is reported, null otherwise
+	 */
+	public ReportedTandemRepeat allignCandidate(TandemRepeat trCandidate) {
+		if (aligner == null) {
+			aligner = new SimpleEditDistanceMeasure();
+			copyAligner = new BandedAligner();
+		}
+		if (wraparoundAligner == null) {
+			wraparoundAligner = newWraparoundAligner();
+		}
+		return allignCandidate(trCandidate, aligner, copyAligner, getPatternCutter(), wraparoundAligner);
+	}
+
+	/**
+	 * Alligns one candidate with its ideal sequence and refines its num copies
+	 * 
+	 * @param trCandidate
+	 * @param a
+	 *            aligner used by the current thread
+	 * @param copyAligner
+	 *            aligner of the copies used by the current thread
+	 * @param cutter
+	 *            pattern cutter used by the current thread
+	 * @param wraparound
+	 *            wraparound aligner used by the current thread, null to
+	 *            allign with the ideal sequence
+	 * @return the tandem repeat if it is reported, null otherwise
+	 */
+	private ReportedTandemRepeat allignCandidate(TandemRepeat trCandidate, SimpleEditDistanceMeasure a,
+			BandedAligner copyAligner, PatternCutter cutter, WraparoundAligner wraparound) {
+		// we compute pattern
+		int patternBeginning = trCandidate.getPatternBeginning();
+		byte[] patternBytes = new byte[trCandidate.getLast() + 1 - patternBeginning];
+		sequence.getBytes(patternBeginning, trCandidate.getLast() + 1, patternBytes, 0);
+		double times = trCandidate.getNumCopies();
+
+		String realseq = substring(trCandidate.getFirst(), trCandidate.getLast() + 1);
+
+		PatternCut cut = cutter.cut(patternBytes, patternBytes.length, times);
+		int patternSize = cut.getSize();
+		times = cut.getTimes();
+		if (patternSize < patternBytes.length) {
+			patternBytes = Arrays.copyOf(patternBytes, patternSize);
+		}
+		String pattern = new String(patternBytes, StandardCharsets.ISO_8859_1);
+
+		// extend sequence to get times
+		int beg = trCandidate.getFirst();
+		// segment of the sequence compared with the pattern
+		byte[] copy = new byte[patternSize];
+		boolean keepGoing = true;
+
+		// extend backwards N times in case algorithm didn't find these
+		// copies
+		beg -= patternSize;
+		while (keepGoing) {
+
+			if (beg >= 0) {
+				if (matchesCopy(copyAligner, patternBytes, copy, beg)) {
+					times++;
+					beg -= patternSize;
 				} else {
 					keepGoing = false;
 				}
-
-			}
-			beg += patternSize;
-			int beginning = trCandidate.getFirst();
-			int reallength = realseq.length();
-
-			// if we found more matching copies update info that is going to be
-			// written
-			if (times > trCandidate.getNumCopies()) {
-				beginning = beg;
-				reallength = trCandidate.getLast() - beg + 1;
-				realseq = sequence.substring(beg, trCandidate.getLast() + 1);
+			} else {
+				keepGoing = false;
 			}
 
-			// extend sequence forward
-			int end = trCandidate.getLast() + 1;
-			temp = null;
-			double forwardtimes = times;
-			keepGoing = true;
-
-			// end += patternSize;
-			while (keepGoing) {
+		}
+		beg += patternSize;
+		int beginning = trCandidate.getFirst();
+		int reallength = realseq.length();
+
+		// if we found more matching copies update info that is going to be
+		// written
+		if (times > trCandidate.getNumCopies()) {
+			beginning = beg;
+			reallength = trCandidate.getLast() - beg + 1;
+			realseq = substring(beg, trCandidate.getLast() + 1);
+		}
 
-				if (end + patternSize < sequence.length()) {
-					temp = a.pairwiseAlignment(pattern, sequence.substring(end, end + patternSize));
-					String s1 = temp.get(0).toString();
-					String s2 = temp.get(1).toString();
-					int ham = hammingDist(s1, s2);
+		// extend sequence forward
+		int end = trCandidate.getLast() + 1;
+		double forwardtimes = times;
+		keepGoing = true;
 
-					double limit = 0.4 * s1.length();
+		// end += patternSize;
+		while (keepGoing) {
 
-					if (ham <= limit) {
-						forwardtimes++;
-						end += patternSize;
-					} else {
-						keepGoing = false;
-					}
+			if (end + patternSize < sequence.length()) {
+				if (matchesCopy(copyAligner, patternBytes, copy, end)) {
+					forwardtimes++;
+					end += patternSize;
 				} else {
 					keepGoing = false;
 				}
-
-			}
-			// end -= patternSize;
-			// if we found more matching copies forward we update info that is
-			// going to be written
-			if (forwardtimes > times) {
-				times = forwardtimes;
-				trCandidate.setLast(end);
-				reallength = trCandidate.getLast() - beg + 1;
-				realseq = sequence.substring(beg, trCandidate.getLast() + 1);
+			} else {
+				keepGoing = false;
 			}
 
-			// calculate ideal seq by multiplying the pattern
-			String toallign = "";
-			for (int i = 0; i < times; i++) {
-				toallign += pattern;
-			}
+		}
+		// end -= patternSize;
+		// if we found more matching copies forward we update info that is
+		// going to be written
+		if (forwardtimes > times) {
+			times = forwardtimes;
+			trCandidate.setLast(end);
+			reallength = trCandidate.getLast() - beg + 1;
+			realseq = substring(beg, trCandidate.getLast() + 1);
+		}
+
+		// cheap checks first, the allignment is computed only if the
+		// tandem repeat could be reported
+		if (!canBeReported(realseq.length(), pattern.length(), times, wraparound != null)) {
+			return null;
+		}
+
+		PeriodicSequence toallign;
+		List<CharSequence> r;
+		int alscore;
+		if (wraparound != null && !keepAlignments) {
+			// only the score is needed, computed with two rows
+			byte[] realBytes = realseq.getBytes(StandardCharsets.ISO_8859_1);
+			toallign = null;
+			r = null;
+			alscore = wraparound.score(patternBytes, patternSize, realBytes, 0, realBytes.length);
+		} else if (wraparound != null) {
+			// the ideal seq is the part of the repeated pattern covered by the
+			// allignment, the traceback of long sequences is done by blocks
+			byte[] realBytes = realseq.getBytes(StandardCharsets.ISO_8859_1);
+			r = wraparound.align(patternBytes, patternSize, realBytes, 0, realBytes.length);
+			toallign = new PeriodicSequence(pattern, wraparound.getIdealLength());
+			alscore = alignmentScore(r.get(0).toString(), r.get(1).toString());
+		} else {
+			// ideal seq is the pattern repeated, read from the pattern without
+			// building it
+			toallign = PeriodicSequence.ofCopies(pattern, times);
 
 			// allign final sequences
-			List<CharSequence> r = a.pairwiseAlignment(toallign, realseq);
+			r = a.pairwiseAlignment(toallign, realseq);
 
 			// now we check if the TR is gonna be reported
-			int alscore = alignmentScore(r.get(0).toString(), r.get(1).toString());
-			boolean report = alscore >= minimumAlignmentScore;
-
-			trCandidate.setSequenceName(sequenceName);
-
-			// write line to file
-			if (report && realseq.length() >= 25) {
-				if ((times < 3.0 && pattern.length() >= 12) || times >= 3.0) {
-					if ((times < 3.0 && alscore >= minimumAlignmentScore + 10)
-							|| (times < 4.0 && times >= 3.0 && alscore >= minimumAlignmentScore + 2) || times >= 4.0) {
-						line = sequenceName + " " + beginning + " " + trCandidate.getLast() + " "
-								+ trCandidate.getDistance() + " " + times + " " + reallength + " " + pattern + " "
-								+ realseq + " " + toallign + " " + r + " " + alscore;
-						pw.println(line);
+			alscore = alignmentScore(r.get(0).toString(), r.get(1).toString());
+		}
+		boolean report = alscore >= minimumAlignmentScore;
+
+		trCandidate.setSequenceName(sequenceName);
+
+		// report the tandem repeat
+		if (report && realseq.length() >= 25) {
+			if ((times < 3.0 && pattern.length() >= 12) || times >= 3.0) {
+				if ((times < 3.0 && alscore >= minimumAlignmentScore + 10)
+						|| (times < 4.0 && times >= 3.0 && alscore >= minimumAlignmentScore + 2) || times >= 4.0) {
+					if (!keepAlignments) {
+						return new ReportedTandemRepeat(sequenceName, beginning, trCandidate.getLast(),
+								trCandidate.getDistance(), times, reallength, pattern, null, null, null, alscore);
 					}
-
+					return new ReportedTandemRepeat(sequenceName, beginning, trCandidate.getLast(),
+							trCandidate.getDistance(), times, reallength, pattern, realseq, toallign, r, alscore);
 				}
+
 			}
+		}
+		return null;
+	}
 
+	/**
+	 * Checks the criteria to report a tandem repeat that do not need the
+	 * allignment: length of the sequence, number of copies with pattern size,
+	 * and the score of the allignment if every column of the shortest of the
+	 * sequence and the ideal sequence were a match
+	 * 
+	 * @param length
+	 *            length of the sequence covered by the tandem repeat
+	 * @param patternSize
+	 * @param times
+	 *            number of copies of the pattern in the ideal sequence
+	 * @param wraparound
+	 *            true if the ideal sequence is chosen by the wraparound
+	 *            aligner, so it can be as long as the sequence
+	 * @return false if the tandem repeat can not be reported whatever its
+	 *         allignment
+	 */
+	private boolean canBeReported(int length, int patternSize, double times, boolean wraparound) {
+		if (length < 25) {
+			return false;
 		}
-		pw.close();
-	}
-
-	public String[] cutPattern(String pattern, double times) {
-		String[] ans = new String[2];
-
-		String newpattern = pattern;
-		double newtimes = times;
-
-		ans[0] = pattern;
-		ans[1] = times + "";
-		int patLength = newpattern.length();
-		for (Integer n : primeNumbers) {
-			// if a pattern can be split in two, we split it until necessary
-			// it can be split by this number
-			if (n == 2) {
-				int mid = newpattern.length() / 2; // get the middle of the
-													// String
-				boolean keepCutting = true;
-				while (keepCutting) {
-					String[] parts = { newpattern.substring(0, mid), newpattern.substring(mid) };
-					if (parts[0].equals(parts[1])) {
-						newpattern = parts[0];
-						newtimes = times * 2;
-						mid = newpattern.length() / 2;
-					} else {
-						keepCutting = false;
-					}
-				}
-				if (!newpattern.equals(pattern)) {
-					ans[0] = newpattern;
-					ans[1] = newtimes + "";
-					return ans;
-				}
-			} else { // any other prime number
-				if (patLength % n == 0) {
-					boolean couldCut = true;
-					ArrayList<String> subpatterns = new ArrayList<String>();
-					int limit = 0;
-					for (int i = 0; i < patLength; i += n) {
-						limit = i + n;
-						String subpattern = pattern.substring(i, limit);
-						subpatterns.add(subpattern);
-					}
-					String firstp = subpatterns.get(0);
-					for (int i = 1; i < subpatterns.size(); i++) {
-						couldCut &= firstp.equals(subpatterns.get(i));
-						firstp = subpatterns.get(i);
-						if (!couldCut) {
-							break;
-						}
-					}
-					if (couldCut) {
-						newpattern = firstp;
-						newtimes = newtimes * n;
-						ans[0] = newpattern;
-						ans[1] = newtimes + "";
-						return ans;
-					}
-				}
-			}
+		if (times < 3.0 && patternSize < 12) {
+			return false;
+		}
+		int minScore = minimumAlignmentScore;
+		if (times < 3.0) {
+			minScore += 10;
+		} else if (times < 4.0) {
+			minScore += 2;
+		}
+		// the ideal sequence has one copy of the pattern for each started
+		// copy, and the difference of lengths is alligned to gaps
+		long idealLength = wraparound ? length : (long) Math.ceil(times) * patternSize;
+		long maxScore = Math.min(idealLength, length) * Math.max(matchScore, 0)
+				- Math.abs(idealLength - length) * Math.max(missScore, 0);
+		return maxScore >= minScore;
+	}
 
+	/**
+	 * Checks if the segment of the sequence starting at start is a copy of
+	 * the pattern, which means that at most 40% of the columns of their
+	 * allignment are mismatches or gaps
+	 * 
+	 * @param copyAligner
+	 * @param pattern
+	 * @param copy
+	 *            buffer for the segment, as long as the pattern
+	 * @param start
+	 * @return true if the segment is a copy of the pattern
+	 */
+	private boolean matchesCopy(BandedAligner copyAligner, byte[] pattern, byte[] copy, int start) {
+		int length = pattern.length;
+		sequence.getBytes(start, start + length, copy, 0);
+		// the allignment has at most length + distance / 2 columns, so a
+		// distance above length / 2 never passes the limit
+		int maxDistance = length / 2;
+		// first try with the indel budget, which is enough for real copies
+		int band = Math.min(maxDistance, (int) Math.floor(2.3 * Math.sqrt(indelProbability * length))) + 1;
+		int distance = copyAligner.align(pattern, 0, copy, 0, length, band);
+		if (distance >= band && band <= maxDistance) {
+			// distance is not exact, use the widest band that can pass
+			band = maxDistance + 1;
+			distance = copyAligner.align(pattern, 0, copy, 0, length, band);
 		}
+		return distance <= maxDistance && distance <= 0.4 * copyAligner.getAlignmentLength();
+	}
 
-		return ans;
+	/**
+	 * @param from
+	 * @param to
+	 * @return characters of the sequence from index from to index to - 1
+	 */
+	private String substring(int from, int to) {
+		byte[] characters = new byte[to - from];
+		sequence.getBytes(from, to, characters, 0);
+		return new String(characters, StandardCharsets.ISO_8859_1);
 	}
 
-	public static List<Integer> primeNumbersBruteForce(int n) {
-		List<Integer> primeNumbers = new LinkedList<>();
-		for (int i = 2; i <= n; i++) {
-			if (isPrimeBruteForce(i)) {
-				primeNumbers.add(i);
-			}
-		}
-		return primeNumbers;
+	/**
+	 * Cuts a pattern made of copies of a shorter one, see PatternCutter. Uses
+	 * the cutter of this instance, so it must not be called by several
+	 * threads at the same time
+	 * 
+	 * @param pattern
+	 * @param length
+	 *            number of characters of the pattern
+	 * @param times
+	 *            number of copies of the pattern
+	 * @return size of the new pattern, a prefix of the given one, and its
+	 *         number of copies
+	 */
+	public PatternCut cutPattern(byte[] pattern, int length, double times) {
+		return getPatternCutter().cut(pattern, length, times);
 	}
 
-	public static boolean isPrimeBruteForce(int number) {
-		for (int i = 2; i < number; i++) {
-			if (number % i == 0) {
-				return false;
-			}
+	private PatternCutter getPatternCutter() {
+		if (cutter == null) {
+			cutter = new PatternCutter();
 		}
-		return true;
+		return cutter;
+	}
+
+	/**
+	 * @return new wraparound aligner with the scores of this selector, null if
+	 *         final allignments do not use it
+	 */
+	private WraparoundAligner newWraparoundAligner() {
+		return wraparoundAlignment ? new WraparoundAligner(matchScore, missScore) : null;
 	}
 
 	/*
@@ -780,36 +1095,79 @@ public class TRFCandidateSelector {
 	 * @return
 	 */
 	public int hammingDist(String str1, String str2) {
-		int i = 0, count = 0;
-		while (i < str1.length()) {
-			if (str1.charAt(i) != str2.charAt(i))
-				count++;
-			i++;
+		int length = str1.length();
+		int count = 0;
+		// loops without branches, so that mismatches do not cost
+		// mispredictions and the JIT can vectorize them
+		for (int i = 0; i < length; i++) {
+			count += differs(str1.charAt(i), str2.charAt(i));
 		}
 		return count;
 	}
 
 	/**
-	 * Checks if two alligned strings have at least N same characters
+	 * Computes hamming distance from the first length characters of two
+	 * sequences
+	 * 
+	 * @param seq1
+	 * @param seq2
+	 * @param length
+	 * @return number of positions with different characters
+	 */
+	public static int hammingDist(byte[] seq1, byte[] seq2, int length) {
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			count += differs(seq1[i], seq2[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * Computes the score of two alligned strings: each match adds the match
+	 * score, each mismatch or gap subtracts the miss score
 	 * 
 	 * @param str1
 	 * @param str2
-	 * @param minimum
-	 * @return
+	 * @return score of the allignment
 	 */
 	public int alignmentScore(String str1, String str2) {
-		int i = 0, count = 0;
+		int length = str1.length();
+		int matches = 0;
+		for (int i = 0; i < length; i++) {
+			char c = str1.charAt(i);
+			// equal characters that are not gaps
+			matches += (differs(c, str2.charAt(i)) ^ 1) & differs(c, '-');
+		}
+		return matches * matchScore - (length - matches) * missScore;
+	}
 
-		while (i < str1.length()) {
-			if (str1.charAt(i) == '-' || str2.charAt(i) == '-') {
-				count -= missScore;
-			} else if (str1.charAt(i) != str2.charAt(i)) {
-				count -= missScore;
-			} else if (str1.charAt(i) == str2.charAt(i))
-				count += matchScore;
-			i++;
+	/**
+	 * Computes the score of the allignment given by the first length
+	 * characters of two sequences with gaps
+	 * 
+	 * @param seq1
+	 * @param seq2
+	 * @param length
+	 * @return score of the allignment
+	 */
+	public int alignmentScore(byte[] seq1, byte[] seq2, int length) {
+		int matches = 0;
+		for (int i = 0; i < length; i++) {
+			byte c = seq1[i];
+			matches += (differs(c, seq2[i]) ^ 1) & differs(c, '-');
 		}
-		return count;
+		return matches * matchScore - (length - matches) * missScore;
+	}
+
+	/**
+	 * @param c1
+	 * @param c2
+	 * @return 1 if the characters are different, 0 otherwise, without
+	 *         branches
+	 */
+	private static int differs(int c1, int c2) {
+		int x = c1 ^ c2;
+		return (x | -x) >>> 31;
 	}
 
 	/**
@@ -822,46 +1180,53 @@ public class TRFCandidateSelector {
 	 * @return
 	 */
 	public boolean isOverlapped(int i1, int i2, int j1, int j2) {
-		boolean ans = false;
-		ans |= (i1 == j1 && i2 == j2);
-		ans |= (j1 <= i1 && (j2 >= i1 && j2 <= i2));
-		ans |= ((j1 >= i1 && j1 <= i2) && j2 >= i2);
-		ans |= (j1 <= i1 && j2 >= i2);
-		ans |= (j1 >= i1 && j2 <= i2);
-		return ans;
+		return OverlapFilter.isOverlapped(i1, i2, j1, j2);
 	}
 
 	/**
-	 * Returns sum of heads criteria for distance d and tuple size k
+	 * Returns sum of heads criteria for distance d and tuple size k. The TRF
+	 * tables, indexed by distance, are used for the tuple sizes of TRF (see
+	 * TRF_TUPLE_SIZES) and the match probabilities they were computed for.
+	 * Other tuple sizes, probabilities or distances beyond the tables use the
+	 * tables of ThresholdTables
 	 * 
 	 * @param d
 	 * @param k
 	 * @return
 	 */
 	public int computeSumOfHeadsThreshold(int d, int k) {
-		// return sumdata75[d - 1];
-		if (matchProbability == 0.8) {
-			return sumdata80[d - 1];
+		if (isTRFTupleSize(k)) {
+			if (matchProbability == 0.8 && d < sumdata80.length) {
+				return sumdata80[d];
+			}
+			if (matchProbability == 0.75 && d < sumdata75.length) {
+				return sumdata75[d];
+			}
 		}
-		return sumdata75[d - 1];
+		return thresholds.getSumOfHeadsThresholds(k)[d];
 	}
 
 	/**
-	 * Returns sum of heads criteria for distance d
+	 * @param k
+	 * @return true if k is one of the tuple sizes used by TRF
+	 */
+	private static boolean isTRFTupleSize(int k) {
+		for (int trfTupleSize : TRF_TUPLE_SIZES) {
+			if (k == trfTupleSize) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns apparent size criteria for distance d
 	 * 
 	 * @param d
-	 * @param k
 	 * @return
 	 */
 	public int computeApparentSizeThreshold(int d) {
-		if (d > 10) {
-			return (int) Math.floor(d * 0.9);
-		} else if (d > 5) {
-			return (int) Math.floor(d * 0.85);
-		} else {
-			return (int) Math.floor(d * 0.8);
-		}
-
+		return ThresholdTables.computeApparentSizeThreshold(d);
 	}
 
 	/**
@@ -875,14 +1240,157 @@ public class TRFCandidateSelector {
 	 * @return the sequence
 	 */
 	public String getSequence() {
-		return sequence;
+		return substring(0, sequence.length());
+	}
+
+	/**
+	 * @return true if final allignments are computed with the wraparound
+	 *         aligner
+	 */
+	public boolean isWraparoundAlignment() {
+		return wraparoundAlignment;
+	}
+
+	/**
+	 * Sets if final allignments are computed with WraparoundAligner, which
+	 * alligns the sequence with the pattern repeated as many times as needed
+	 * in O(length x period) time, instead of alligning it with an ideal
+	 * sequence of the number of copies found. Scores are the best over every
+	 * length of the ideal sequence, so they can be higher and more repeats can
+	 * be reported. Needs a positive miss score
+	 * 
+	 * @param wraparoundAlignment
+	 */
+	public void setWraparoundAlignment(boolean wraparoundAlignment) {
+		if (wraparoundAlignment && missScore <= 0) {
+			throw new IllegalArgumentException("Wraparound allignment needs a positive miss score: " + missScore);
+		}
+		this.wraparoundAlignment = wraparoundAlignment;
+		this.wraparoundAligner = null;
 	}
 
 	/**
-	 * @return the historyList
+	 * @return true if reported repeats keep their sequence, ideal sequence and
+	 *         allignment
+	 */
+	public boolean isKeepAlignments() {
+		return keepAlignments;
+	}
+
+	/**
+	 * Sets if reported repeats keep their sequence, ideal sequence and
+	 * allignment. Writers that do not use them (see
+	 * TandemRepeatWriter.writesAlignments) can receive repeats without them,
+	 * so that they are released as soon as each candidate is alligned
+	 * 
+	 * @param keepAlignments
+	 */
+	public void setKeepAlignments(boolean keepAlignments) {
+		this.keepAlignments = keepAlignments;
+	}
+
+	/**
+	 * @return tuple sizes used to find candidates
+	 */
+	public int[] getTupleSizes() {
+		return tupleSizes.clone();
+	}
+
+	/**
+	 * Sets the tuple sizes used to find candidates, for example 3, 5 and 7 to
+	 * cover short and long periods. All of them are computed in the same pass
+	 * over the sequence, and the candidates found with each one are merged
+	 * removing overlaps
+	 * 
+	 * @param tupleSizes
+	 *            between 1 and KmerHistory.MAX_K_TUPLE_SIZE
+	 */
+	public void setTupleSizes(int... tupleSizes) {
+		int[] maxDistances = new int[tupleSizes.length];
+		Arrays.fill(maxDistances, maxPatternSize);
+		setTupleSizes(tupleSizes, new int[tupleSizes.length], maxDistances);
+	}
+
+	/**
+	 * Sets tuple sizes that evaluate consecutive ranges of distances, like
+	 * the multi-tuple scheme of TRF: small tuples for short periods and larger
+	 * ones, with less spurious hits, for long periods. Tuple size t is used
+	 * from maxDistances[t - 1] + 1 up to maxDistances[t]
+	 * 
+	 * @param tupleSizes
+	 *            between 1 and KmerHistory.MAX_K_TUPLE_SIZE, for example 4, 5
+	 *            and 7
+	 * @param maxDistances
+	 *            increasing, for example 29, 159 and maxPatternSize. Distances
+	 *            above the last one are not evaluated
+	 */
+	public void setTupleDistanceRanges(int[] tupleSizes, int[] maxDistances) {
+		if (maxDistances.length != tupleSizes.length) {
+			throw new IllegalArgumentException("One maximum distance is needed for each tuple size");
+		}
+		int[] minDistances = new int[tupleSizes.length];
+		for (int t = 1; t < tupleSizes.length; t++) {
+			if (maxDistances[t] <= maxDistances[t - 1]) {
+				throw new IllegalArgumentException("Maximum distances must be increasing");
+			}
+			minDistances[t] = maxDistances[t - 1];
+		}
+		setTupleSizes(tupleSizes, minDistances, maxDistances);
+	}
+
+	/**
+	 * @param tupleSizes
+	 * @param minDistances
+	 *            tuple size index t, distances up to this one are not
+	 *            evaluated
+	 * @param maxDistances
+	 *            tuple size index t, largest distance evaluated
+	 */
+	private void setTupleSizes(int[] tupleSizes, int[] minDistances, int[] maxDistances) {
+		if (tupleSizes.length == 0) {
+			throw new IllegalArgumentException("At least one tuple size is needed");
+		}
+		for (int k : tupleSizes) {
+			if (k < 1 || k > KmerHistory.MAX_K_TUPLE_SIZE) {
+				throw new IllegalArgumentException("Invalid k-tuple size: " + k);
+			}
+		}
+		this.tupleSizes = tupleSizes.clone();
+		this.tupleMinDistances = new int[tupleSizes.length];
+		this.tupleMaxDistances = new int[tupleSizes.length];
+		for (int t = 0; t < tupleSizes.length; t++) {
+			tupleMinDistances[t] = minDistances[t] + 1;
+			tupleMaxDistances[t] = Math.min(maxDistances[t], maxPatternSize);
+		}
+	}
+
+	/**
+	 * @param numThreads
+	 *            number of threads used to scan and allign each sequence
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @return pool running the parallel work of this selector
+	 */
+	public ExecutorService getPool() {
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Sets the pool running the parallel work of this selector, so that
+	 * several selectors share the same threads instead of creating them for
+	 * each sequence. The pool is not shut down by this selector. Tasks of a
+	 * pool with a fixed number of threads must not call this selector, they
+	 * could wait for work that no thread is free to run
+	 * 
+	 * @param pool
+	 *            null to use the common ForkJoinPool
 	 */
-	public HashMap<String, ArrayList<Integer>> getHistoryList() {
-		return historyList;
+	public void setPool(ExecutorService pool) {
+		this.pool = pool;
 	}
 
 	/**
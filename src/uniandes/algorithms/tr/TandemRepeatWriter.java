@@ -0,0 +1,31 @@
+package uniandes.algorithms.tr;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the reported tandem repeats. A writer is created once per
+ * run and receives the repeats of every sequence in order
+ */
+public interface TandemRepeatWriter extends Closeable {
+
+	/**
+	 * Writes one reported tandem repeat
+	 * 
+	 * @param repeat
+	 * @throws IOException
+	 */
+	public void write(ReportedTandemRepeat repeat) throws IOException;
+
+	/**
+	 * Tells if the writer uses the sequence, the ideal sequence and the
+	 * allignment of the repeats. If it does not, the repeats given to it can
+	 * be reported without them
+	 * 
+	 * @return true if the repeats must keep their sequences and allignment
+	 */
+	public default boolean writesAlignments() {
+		return true;
+	}
+
+}
@@ -0,0 +1,247 @@
+package uniandes.algorithms.tr;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark of each stage of TRFCandidateSelector: getCandidates,
+ * refineCandidates, removeOverlaps, allignCandidates, cutPattern and
+ * alignmentScore (of the strings and of the bytes of the allignments). Every
+ * stage is run on a synthetic sequence rich in tandem repeats and on the
+ * sequences of the given fasta files, first some warmup iterations and then
+ * the measured ones. For each stage it reports the mean time per operation,
+ * the throughput in bases of the sequence per second and the bytes
+ * allocated per operation.
+ *
+ * Stages run in the current thread, so that the allocation counter of the
+ * thread includes all the work of the stage. The input of each operation
+ * (stages modify the candidates they receive) is prepared before it is
+ * measured.
+ */
+public class TandemRepeatsBenchmark {
+
+	// length of the synthetic sequence
+	private static final int SYNTHETIC_LENGTH = 1 << 20;
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private static final int MEASURED_ITERATIONS = 10;
+
+	// tuple size used by the candidate selector
+	private static final int K_TUPLE_SIZE = 5;
+
+	private static com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	// results of the operations are kept here so that they are not optimized
+	// away
+	private static volatile Object sink;
+
+	/**
+	 * Arguments (all optional): fasta files, by default ./data/seqfull.fa and
+	 * ./data/seqB.fa
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] fastaFilenames = { "./data/seqfull.fa", "./data/seqB.fa" };
+		if (args.length > 0) {
+			fastaFilenames = args;
+		}
+		System.out.println("fixture stage ms/op bases/sec bytes/op");
+		benchmark("synthetic", synthesize(SYNTHETIC_LENGTH, 42));
+		for (String fastaFilename : fastaFilenames) {
+			try (FastaSequenceReader reader = new FastaSequenceReader(fastaFilename)) {
+				while (reader.next()) {
+					benchmark(reader.getName(), reader.getSequence());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs every stage on one sequence
+	 *
+	 * @param name
+	 * @param sequence
+	 */
+	private static void benchmark(String name, byte[] sequence) {
+		TRFCandidateSelector trfc = new TRFCandidateSelector(sequence, name, 0.8, 0.1, 25, 30, 2, 4, 1);
+		int length = sequence.length;
+
+		run(name, "getCandidates", length, () -> null, input -> trfc.getCandidates(K_TUPLE_SIZE));
+
+		run(name, "refineCandidates", length, () -> trfc.getCandidates(K_TUPLE_SIZE),
+				input -> trfc.refineCandidates(input));
+
+		ArrayList<TandemRepeat> refined = trfc.refineCandidates(trfc.getCandidates(K_TUPLE_SIZE));
+		refined.sort((o1, o2) -> Integer.compare(o1.getFirst(), o2.getFirst()));
+		run(name, "removeOverlaps", length, () -> copy(refined), input -> {
+			trfc.removeOverlaps(input);
+			return input;
+		});
+
+		ArrayList<TandemRepeat> candidates = trfc.getAllCandidates();
+		run(name, "allignCandidates", length, () -> copy(candidates), input -> trfc.allignCandidates(input));
+
+		// patterns and copies given to cutPattern by allignCandidates
+		List<byte[]> patterns = new ArrayList<byte[]>();
+		for (TandemRepeat tr : candidates) {
+			patterns.add(Arrays.copyOfRange(sequence, tr.getPatternBeginning(), tr.getLast() + 1));
+		}
+		run(name, "cutPattern", length, () -> null, input -> {
+			PatternCut result = null;
+			for (int i = 0; i < patterns.size(); i++) {
+				byte[] pattern = patterns.get(i);
+				result = trfc.cutPattern(pattern, pattern.length, candidates.get(i).getNumCopies());
+			}
+			return result;
+		});
+
+		// allignments of the reported repeats, as strings and as bytes
+		List<String[]> alignments = new ArrayList<String[]>();
+		List<byte[][]> alignmentBytes = new ArrayList<byte[][]>();
+		for (ReportedTandemRepeat repeat : trfc.allignCandidates(copy(candidates))) {
+			String ideal = repeat.getAlignment().get(0).toString();
+			String real = repeat.getAlignment().get(1).toString();
+			alignments.add(new String[] { ideal, real });
+			alignmentBytes.add(new byte[][] { ideal.getBytes(StandardCharsets.ISO_8859_1),
+					real.getBytes(StandardCharsets.ISO_8859_1) });
+		}
+		run(name, "alignmentScore", length, () -> null, input -> {
+			int total = 0;
+			for (String[] alignment : alignments) {
+				total += trfc.alignmentScore(alignment[0], alignment[1]);
+			}
+			return total;
+		});
+		run(name, "alignmentScoreBytes", length, () -> null, input -> {
+			int total = 0;
+			for (byte[][] alignment : alignmentBytes) {
+				total += trfc.alignmentScore(alignment[0], alignment[1], alignment[0].length);
+			}
+			return total;
+		});
+	}
+
+	/**
+	 * Input of an operation, created before the operation is measured
+	 */
+	private interface Setup<T> {
+		public T create();
+	}
+
+	/**
+	 * Operation measured
+	 */
+	private interface Operation<T> {
+		public Object run(T input);
+	}
+
+	/**
+	 * Runs the warmup and measured iterations of one stage and prints the
+	 * results
+	 *
+	 * @param fixture
+	 * @param stage
+	 * @param length
+	 *            length of the sequence processed by each operation
+	 * @param setup
+	 * @param operation
+	 */
+	private static <T> void run(String fixture, String stage, int length, Setup<T> setup, Operation<T> operation) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			sink = operation.run(setup.create());
+		}
+		long threadId = Thread.currentThread().getId();
+		long totalTime = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			T input = setup.create();
+			long bytes = threadBean.getThreadAllocatedBytes(threadId);
+			long time = System.nanoTime();
+			sink = operation.run(input);
+			totalTime += System.nanoTime() - time;
+			totalBytes += threadBean.getThreadAllocatedBytes(threadId) - bytes;
+		}
+		double seconds = totalTime / 1e9 / MEASURED_ITERATIONS;
+		System.out.println(fixture + " " + stage + " " + String.format("%.3f", seconds * 1000) + " "
+				+ String.format("%.0f", length / seconds) + " " + totalBytes / MEASURED_ITERATIONS);
+	}
+
+	/**
+	 * @param candidates
+	 * @return new list with a copy of each candidate
+	 */
+	private static ArrayList<TandemRepeat> copy(List<TandemRepeat> candidates) {
+		ArrayList<TandemRepeat> answer = new ArrayList<TandemRepeat>(candidates.size());
+		for (TandemRepeat tr : candidates) {
+			TandemRepeat c = new TandemRepeat(tr.getFirst(), tr.getLast(), tr.getUnitLength(), tr.getSumOfHeads());
+			c.setPatternBeginning(tr.getPatternBeginning());
+			c.setNumCopies(tr.getNumCopies());
+			answer.add(c);
+		}
+		return answer;
+	}
+
+	/**
+	 * Builds a random sequence in which about half of the bases belong to
+	 * tandem repeats with periods between 1 and 25, some of them with point
+	 * mutations and indels, plus a few runs of N
+	 *
+	 * @param length
+	 * @param seed
+	 * @return upper case characters of the sequence
+	 */
+	public static byte[] synthesize(int length, long seed) {
+		byte[] bases = { 'A', 'C', 'G', 'T' };
+		Random random = new Random(seed);
+		byte[] sequence = new byte[length];
+		int i = 0;
+		while (i < length) {
+			int choice = random.nextInt(10);
+			if (choice < 5) {
+				// random segment
+				int end = Math.min(length, i + 50 + random.nextInt(500));
+				for (; i < end; i++) {
+					sequence[i] = bases[random.nextInt(4)];
+				}
+			} else if (choice < 9) {
+				// tandem repeat of a random pattern
+				byte[] pattern = new byte[1 + random.nextInt(25)];
+				for (int j = 0; j < pattern.length; j++) {
+					pattern[j] = bases[random.nextInt(4)];
+				}
+				int end = Math.min(length, i + 2 * pattern.length + random.nextInt(300));
+				for (int j = 0; i < end; j++) {
+					int mutation = random.nextInt(100);
+					if (mutation < 5) {
+						sequence[i++] = bases[random.nextInt(4)];
+					} else if (mutation < 7) {
+						// deletion, the base of the pattern is skipped
+						continue;
+					} else {
+						if (mutation < 9) {
+							// insertion before the base of the pattern
+							sequence[i++] = bases[random.nextInt(4)];
+							if (i == end) {
+								break;
+							}
+						}
+						sequence[i++] = pattern[j % pattern.length];
+					}
+				}
+			} else {
+				// run of N
+				int end = Math.min(length, i + 1 + random.nextInt(100));
+				for (; i < end; i++) {
+					sequence[i] = 'N';
+				}
+			}
+		}
+		return sequence;
+	}
+
+}
@@ -1,64 +1,305 @@
 package uniandes.algorithms.tr;
 
 
-import java.io.FileWriter;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.TreeMap;
-
-import ngsep.sequences.QualifiedSequence;
-import ngsep.sequences.QualifiedSequenceList;
-import ngsep.sequences.io.FastaSequencesHandler;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class TandemRepeatsExample {
 
+	// approximate heap used per base of a sequence being processed: the
+	// characters, the candidate selector structures and the alignments
+	private static final int BYTES_PER_BASE_IN_FLIGHT = 16;
+
+	// tuple sizes used to find candidates
+	private static int[] tupleSizes = { 5 };
+
+	// largest distance evaluated with each tuple size, null if every tuple
+	// size evaluates every distance
+	private static int[] tupleMaxDistances;
+
+	// reported repeats keep their sequences and allignment only if the
+	// writer uses them
+	private static boolean keepAlignments = true;
+
+	// final allignments are computed with the wraparound aligner
+	private static boolean wraparoundAlignment = false;
+
+	// runs the chunks and allignment blocks of all the sequences, shared by
+	// the candidate selectors of the worker threads
+	private static ForkJoinPool chunkPool;
+
+	// each worker thread reuses one candidate selector for all the sequences
+	// it processes
+	private static final ThreadLocal<TRFCandidateSelector> selectors = ThreadLocal.withInitial(() -> {
+		TRFCandidateSelector trfc = new TRFCandidateSelector(0.8, 0.1, 25, 30, 2, 4, 1);
+		trfc.setKeepAlignments(keepAlignments);
+		trfc.setWraparoundAlignment(wraparoundAlignment);
+		trfc.setPool(chunkPool);
+		if (tupleMaxDistances != null) {
+			trfc.setTupleDistanceRanges(tupleSizes, tupleMaxDistances);
+		} else {
+			trfc.setTupleSizes(tupleSizes);
+		}
+		return trfc;
+	});
+
+	/**
+	 * Arguments (all optional): fasta file (or packed file, see
+	 * PackedSequence), number of sequences processed at the same time, output
+	 * file (binary if it ends with .trb, BED if it ends with .bed, GFF3 if it
+	 * ends with .gff3, text otherwise), tuple sizes separated by commas (for
+	 * example 3,5,7), each one optionally followed by the largest distance
+	 * evaluated with it (for example 4:29,5:159,7 uses 4 for periods up to
+	 * 29, 5 up to 159 and 7 for the rest), allignment of the repeats (edit to
+	 * allign them with the ideal sequence, wraparound to use
+	 * WraparoundAligner)
+	 */
 	public static void main(String[] args) throws Exception {
-		
-		
+
+
 		String fastaFilename = "./data/S288C_20150113.fa";
-		// Assemble sequence
-		
+		if (args.length > 0) {
+			fastaFilename = args[0];
+		}
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1) {
+			numThreads = Integer.parseInt(args[1]);
+		}
+		String outFilename = "./data/outTR.txt";
+		if (args.length > 2) {
+			outFilename = args[2];
+		}
+		if (args.length > 3) {
+			String[] items = args[3].split(",");
+			tupleSizes = new int[items.length];
+			int[] maxDistances = new int[items.length];
+			boolean ranges = false;
+			for (int i = 0; i < items.length; i++) {
+				String[] parts = items[i].trim().split(":");
+				tupleSizes[i] = Integer.parseInt(parts[0]);
+				maxDistances[i] = Integer.MAX_VALUE;
+				if (parts.length > 1) {
+					maxDistances[i] = Integer.parseInt(parts[1]);
+					ranges = true;
+				}
+			}
+			if (ranges) {
+				tupleMaxDistances = maxDistances;
+			}
+		}
+		if (args.length > 4) {
+			if ("wraparound".equals(args[4])) {
+				wraparoundAlignment = true;
+			} else if (!"edit".equals(args[4])) {
+				throw new IllegalArgumentException("Unknown allignment: " + args[4]);
+			}
+		}
+		// sequences are read one at a time while they are processed, or
+		// mapped from a packed file. The lengths of the fasta records are read
+		// first, so that memory is reserved before each record is loaded
+		FastaSequenceReader reader = null;
+		Iterator<Long> recordLengths = null;
+		List<PackedSequence> packedSequences = null;
+		if (fastaFilename.endsWith(PackedSequence.EXTENSION)) {
+			packedSequences = PackedSequence.map(fastaFilename);
+		} else {
+			recordLengths = FastaSequenceReader.readLengths(fastaFilename).iterator();
+			reader = new FastaSequenceReader(fastaFilename);
+		}
+		// one buffered writer for the whole run, its format is given by the
+		// extension of the output file
+		TandemRepeatWriter writer;
+		if (outFilename.endsWith(BinaryTandemRepeatWriter.EXTENSION)) {
+			writer = new BinaryTandemRepeatWriter(outFilename);
+		} else if (outFilename.endsWith(BedTandemRepeatWriter.EXTENSION)) {
+			writer = new BedTandemRepeatWriter(outFilename);
+		} else if (outFilename.endsWith(GffTandemRepeatWriter.EXTENSION)) {
+			writer = new GffTandemRepeatWriter(outFilename);
+		} else {
+			writer = new TextTandemRepeatWriter(outFilename);
+		}
+		keepAlignments = writer.writesAlignments();
+
+		// bases of the sequences being processed are limited by the heap
+		int maxBasesInFlight = (int) Math.min(Integer.MAX_VALUE,
+				Runtime.getRuntime().maxMemory() / BYTES_PER_BASE_IN_FLIGHT);
+		Semaphore basesInFlight = new Semaphore(maxBasesInFlight);
+		// workers process whole sequences and wait for their chunks, which
+		// run on a separate pool so that waiting workers can not block them
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		chunkPool = new ForkJoinPool(numThreads);
+		// results pending to be written, in the order of the input
+		LinkedList<PendingResult> pending = new LinkedList<PendingResult>();
 
-		FastaSequencesHandler handler = new FastaSequencesHandler();
-		handler.setSequenceType(StringBuilder.class);
-		QualifiedSequenceList sequences = handler.loadSequences(fastaFilename);
-		if (sequences.size() == 0)
-			throw new Exception("No sequences found in file: " + fastaFilename);
-		Files.deleteIfExists(Paths.get("data\\outTR.txt")); 
-		PrintWriter pw = new PrintWriter(new FileWriter("data\\outTR.txt", true));
-		String line = "sequenceName Start End Period NumReps TotalSize Pattern Sequence IdealSeq Alignment AlignmentScore";
-		pw.println(line);
-		pw.close();
-		
 		long timeT = System.currentTimeMillis();
-		for (int i = 0; i < sequences.size() ; i++) {
-			
-			QualifiedSequence seq = sequences.get(i);
-			String sequence = seq.getCharacters().toString().toUpperCase();
-			int seqLength = sequence.length();
-			System.out.println("Length of the sequence read: " + seqLength);
-			
-			double mProb = 0.8;
-			TRFCandidateSelector trfc = new TRFCandidateSelector(sequence, seq.getName(), mProb, 0.1, 25, 30, 2, 4);
-			
-			
-				ArrayList<TandemRepeat> candidates = trfc.getAllCandidates();
-				
-				long time = System.currentTimeMillis();
-				trfc.allignCandidates(candidates);
-				time = System.currentTimeMillis()-time;
-				time = time / 1000;
-				System.out.println("Time performing allignments: "+time + " secs");
-			
-			
+		int numSequences = 0;
+		try {
+			while (true) {
+				long length;
+				if (packedSequences != null) {
+					if (numSequences == packedSequences.size()) {
+						break;
+					}
+					length = packedSequences.get(numSequences).length();
+				} else {
+					if (!recordLengths.hasNext()) {
+						break;
+					}
+					length = recordLengths.next();
+					if (length > NucleotideSequence.MAX_LENGTH) {
+						throw new IOException("Sequence number " + (numSequences + 1) + " of " + fastaFilename
+								+ " has " + length + " bases, more than the maximum of "
+								+ NucleotideSequence.MAX_LENGTH);
+					}
+				}
+				// a sequence larger than the limit is processed alone
+				int permits = (int) Math.min(length, maxBasesInFlight);
+				// write finished results while waiting for memory, before the
+				// sequence is loaded
+				while (!basesInFlight.tryAcquire(permits, 1, TimeUnit.SECONDS)) {
+					writeFinished(pending, writer, basesInFlight);
+				}
+				String name;
+				NucleotideSequence sequence;
+				if (packedSequences != null) {
+					PackedSequence packed = packedSequences.get(numSequences);
+					name = packed.getName();
+					sequence = packed;
+				} else {
+					// the array of the record is allocated once with its length
+					if (!reader.next((int) length)) {
+						throw new IOException("Fasta file changed while it was read: " + fastaFilename);
+					}
+					name = reader.getName();
+					sequence = new ByteArraySequence(reader.getSequence());
+				}
+				numSequences++;
+				// sequences started while others are running are split in
+				// fewer chunks, all of them run on the same chunk pool
+				int running = 0;
+				for (PendingResult result : pending) {
+					if (!result.repeats.isDone()) {
+						running++;
+					}
+				}
+				int threadsPerSequence = Math.max(1, numThreads / (running + 1));
+				pending.add(new PendingResult(
+						pool.submit(() -> processSequence(name, sequence, threadsPerSequence)), permits));
+				writeFinished(pending, writer, basesInFlight);
+			}
+			// write remaining results in order
+			while (!pending.isEmpty()) {
+				write(pending.removeFirst(), writer, basesInFlight);
+			}
+		} finally {
+			pool.shutdownNow();
+			chunkPool.shutdownNow();
+			writer.close();
+			if (reader != null) {
+				reader.close();
+			}
 		}
+		if (numSequences == 0)
+			throw new Exception("No sequences found in file: " + fastaFilename);
 		timeT = System.currentTimeMillis()-timeT;
 		timeT = timeT / 1000;
 		System.out.println("Total time: "+timeT + " secs");
 	}
 
+	/**
+	 * Results of a sequence and the bases of memory reserved for it, which
+	 * are released when its results are written
+	 */
+	private static class PendingResult {
+
+		private Future<List<ReportedTandemRepeat>> repeats;
+
+		private int permits;
+
+		private PendingResult(Future<List<ReportedTandemRepeat>> repeats, int permits) {
+			this.repeats = repeats;
+			this.permits = permits;
+		}
+	}
+
+	/**
+	 * Writes the results at the head of the pending list that are already
+	 * finished, keeping the order of the input
+	 *
+	 * @param pending
+	 * @param writer
+	 * @param basesInFlight
+	 *            receives the bases reserved for the written results
+	 * @throws Exception
+	 */
+	private static void writeFinished(LinkedList<PendingResult> pending, TandemRepeatWriter writer,
+			Semaphore basesInFlight) throws Exception {
+		while (!pending.isEmpty() && pending.getFirst().repeats.isDone()) {
+			write(pending.removeFirst(), writer, basesInFlight);
+		}
+	}
+
+	/**
+	 * Writes the results of a sequence, waiting for them if needed, and then
+	 * releases the bases reserved for it
+	 *
+	 * @param result
+	 * @param writer
+	 * @param basesInFlight
+	 * @throws Exception
+	 */
+	private static void write(PendingResult result, TandemRepeatWriter writer, Semaphore basesInFlight)
+			throws Exception {
+		for (ReportedTandemRepeat repeat : result.repeats.get()) {
+			writer.write(repeat);
+		}
+		basesInFlight.release(result.permits);
+	}
+
+	/**
+	 * Finds and alligns the tandem repeats of one sequence
+	 *
+	 * @param name
+	 * @param sequence
+	 * @param numThreads
+	 *            threads used to scan and allign this sequence
+	 * @return reported tandem repeats
+	 */
+	private static List<ReportedTandemRepeat> processSequence(String name, NucleotideSequence sequence, int numThreads) {
+		int seqLength = sequence.length();
+		System.out.println("Length of the sequence read: " + seqLength);
+
+		TRFCandidateSelector trfc = selectors.get();
+		trfc.setNumThreads(numThreads);
+		long time = System.currentTimeMillis();
+		List<ReportedTandemRepeat> repeats;
+		if (numThreads == 1) {
+			// candidates are alligned as soon as they are found
+			List<ReportedTandemRepeat> reported = new ArrayList<ReportedTandemRepeat>();
+			trfc.scan(sequence, name, trc -> {
+				ReportedTandemRepeat repeat = trfc.allignCandidate(trc);
+				if (repeat != null) {
+					reported.add(repeat);
+				}
+			});
+			repeats = reported;
+		} else {
+			ArrayList<TandemRepeat> candidates = trfc.scan(sequence, name);
+			repeats = trfc.allignCandidates(candidates);
+		}
+		time = System.currentTimeMillis()-time;
+		time = time / 1000;
+		System.out.println("Time finding and alligning tandem repeats: "+time + " secs");
+		return repeats;
+	}
+
 }
@@ -0,0 +1,95 @@
+package uniandes.algorithms.tr;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the reported tandem repeats as space separated text, one line per
+ * repeat, including the sequence, the ideal sequence and their allignment.
+ * Repeats reported without them (see TRFCandidateSelector.setKeepAlignments)
+ * have - in those columns
+ */
+public class TextTandemRepeatWriter implements TandemRepeatWriter {
+
+	// header of the output
+	public static final String HEADER = "sequenceName Start End Period NumReps TotalSize Pattern Sequence IdealSeq Alignment AlignmentScore";
+
+	// size of the output buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// written instead of a sequence or allignment that was not kept
+	private static final String MISSING = "-";
+
+	private Writer out;
+
+	// buffer reused to format each line
+	private StringBuilder line = new StringBuilder();
+
+	private String lineSeparator = System.lineSeparator();
+
+	/**
+	 * Creates the output file, replacing it if it exists, and writes the
+	 * header
+	 * 
+	 * @param filename
+	 * @throws IOException
+	 */
+	public TextTandemRepeatWriter(String filename) throws IOException {
+		this(new FileOutputStream(filename));
+	}
+
+	/**
+	 * @param out
+	 *            stream receiving the output, it is closed with this writer
+	 * @throws IOException
+	 */
+	public TextTandemRepeatWriter(OutputStream out) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+		this.out.write(HEADER);
+		this.out.write(lineSeparator);
+	}
+
+	@Override
+	public void write(ReportedTandemRepeat repeat) throws IOException {
+		line.setLength(0);
+		line.append(repeat.getSequenceName()).append(' ');
+		line.append(repeat.getFirst()).append(' ');
+		line.append(repeat.getLast()).append(' ');
+		line.append(repeat.getPeriod()).append(' ');
+		line.append(repeat.getNumCopies()).append(' ');
+		line.append(repeat.getTotalSize()).append(' ');
+		line.append(repeat.getPattern()).append(' ');
+		CharSequence sequence = repeat.getSequence();
+		line.append(sequence != null ? sequence : MISSING).append(' ');
+		CharSequence idealSequence = repeat.getIdealSequence();
+		line.append(idealSequence != null ? idealSequence : MISSING).append(' ');
+		List<CharSequence> alignment = repeat.getAlignment();
+		if (alignment != null) {
+			line.append('[');
+			for (int i = 0; i < alignment.size(); i++) {
+				if (i > 0) {
+					line.append(", ");
+				}
+				line.append(alignment.get(i));
+			}
+			line.append("] ");
+		} else {
+			line.append(MISSING).append(' ');
+		}
+		line.append(repeat.getAlignmentScore());
+		line.append(lineSeparator);
+		out.append(line);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
@@ -0,0 +1,174 @@
+package uniandes.algorithms.tr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Criteria used to accept candidates, computed once for every distance up to
+ * maxPatternSize so that the scan only looks them up. The sum of heads
+ * criteria follow the model of TRF: the alignment of two copies of a pattern
+ * of size d is a sequence of d coin tosses, heads (matches) with probability
+ * matchProbability, and the sum of heads is the number of heads in runs of at
+ * least k heads, the ones that produce k-tuple matches. The criterion for d
+ * is the value reached by 95% of the real repeats, which is computed with the
+ * distribution of the sum of heads for every length of the sequence of
+ * tosses. The indel probability gives the number of neighbouring distances
+ * checked for indels
+ */
+public class ThresholdTables {
+
+	// fraction of real repeats that may fail the sum of heads criterion
+	private static final double SUM_OF_HEADS_ERROR = 0.05;
+
+	private double matchProbability;
+
+	private int maxPatternSize;
+
+	// distance d, maximum number of positions to the left and right of d
+	// checked for indels
+	private int[] maxDeltas;
+
+	// distance d, apparent size criteria
+	private int[] apparentSizeThresholds;
+
+	// tuple size, distance d, sum of heads criteria
+	private HashMap<Integer, int[]> sumOfHeadsThresholds = new HashMap<Integer, int[]>();
+
+	/**
+	 * Computes the criteria that do not depend on the tuple size. Sum of heads
+	 * criteria are computed the first time each tuple size is asked for
+	 *
+	 * @param matchProbability
+	 *            probability of a match between copies, between 0 and 1
+	 * @param indelProbability
+	 *            probability of an indel between copies
+	 * @param maxPatternSize
+	 */
+	public ThresholdTables(double matchProbability, double indelProbability, int maxPatternSize) {
+		if (matchProbability <= 0 || matchProbability >= 1) {
+			throw new IllegalArgumentException("Invalid match probability: " + matchProbability);
+		}
+		this.matchProbability = matchProbability;
+		this.maxPatternSize = maxPatternSize;
+		this.maxDeltas = new int[maxPatternSize + 1];
+		this.apparentSizeThresholds = new int[maxPatternSize + 1];
+		for (int d = 1; d <= maxPatternSize; d++) {
+			maxDeltas[d] = (int) Math.floor(2.3 * Math.sqrt(indelProbability * d));
+			apparentSizeThresholds[d] = computeApparentSizeThreshold(d);
+		}
+	}
+
+	/**
+	 * @return distance d, maximum number of positions to the left and right of
+	 *         d checked for indels. Must not be modified
+	 */
+	public int[] getMaxDeltas() {
+		return maxDeltas;
+	}
+
+	/**
+	 * @return distance d, apparent size criteria. Must not be modified
+	 */
+	public int[] getApparentSizeThresholds() {
+		return apparentSizeThresholds;
+	}
+
+	/**
+	 * Returns the sum of heads criteria of a tuple size, computing them the
+	 * first time
+	 *
+	 * @param kTupleSize
+	 * @return distance d, sum of heads criteria. Must not be modified
+	 */
+	public synchronized int[] getSumOfHeadsThresholds(int kTupleSize) {
+		int[] thresholds = sumOfHeadsThresholds.get(kTupleSize);
+		if (thresholds == null) {
+			thresholds = computeSumOfHeadsThresholds(matchProbability, kTupleSize, maxPatternSize);
+			sumOfHeadsThresholds.put(kTupleSize, thresholds);
+		}
+		return thresholds;
+	}
+
+	/**
+	 * Returns the apparent size criteria for distance d
+	 *
+	 * @param d
+	 * @return minimum apparent size of a candidate at distance d
+	 */
+	public static int computeApparentSizeThreshold(int d) {
+		if (d > 10) {
+			return (int) Math.floor(d * 0.9);
+		} else if (d > 5) {
+			return (int) Math.floor(d * 0.85);
+		} else {
+			return (int) Math.floor(d * 0.8);
+		}
+	}
+
+	/**
+	 * Computes the sum of heads criteria for every distance up to
+	 * maxPatternSize. The distribution of the sum of heads is updated one toss
+	 * at a time, keeping for each sum the probability of each length of the
+	 * current run of heads (runs of k or more heads are kept together), so
+	 * after toss d it is the distribution for distance d
+	 *
+	 * @param matchProbability
+	 * @param kTupleSize
+	 * @param maxPatternSize
+	 * @return distance d, largest sum of heads reached with probability at
+	 *         least 0.95, and at least the tuple size
+	 */
+	public static int[] computeSumOfHeadsThresholds(double matchProbability, int kTupleSize, int maxPatternSize) {
+		int[] thresholds = new int[maxPatternSize + 1];
+		// current run length r (k means k or more), sum of heads s,
+		// probability
+		double[][] current = new double[kTupleSize + 1][maxPatternSize + 1];
+		double[][] next = new double[kTupleSize + 1][maxPatternSize + 1];
+		current[0][0] = 1;
+		double[] sums = new double[maxPatternSize + 1];
+		for (int d = 1; d <= maxPatternSize; d++) {
+			for (double[] row : next) {
+				Arrays.fill(row, 0, d + 1, 0);
+			}
+			for (int r = 0; r <= kTupleSize; r++) {
+				for (int s = 0; s < d; s++) {
+					double p = current[r][s];
+					if (p == 0) {
+						continue;
+					}
+					// tails end the run
+					next[0][s] += p * (1 - matchProbability);
+					// heads extend it, the first k heads of a run count
+					// when the run reaches k
+					double heads = p * matchProbability;
+					if (r + 1 < kTupleSize) {
+						next[r + 1][s] += heads;
+					} else if (r + 1 == kTupleSize) {
+						next[kTupleSize][s + kTupleSize] += heads;
+					} else {
+						next[kTupleSize][s + 1] += heads;
+					}
+				}
+			}
+			double[][] swap = current;
+			current = next;
+			next = swap;
+			Arrays.fill(sums, 0, d + 1, 0);
+			for (int r = 0; r <= kTupleSize; r++) {
+				for (int s = 0; s <= d; s++) {
+					sums[s] += current[r][s];
+				}
+			}
+			// largest threshold failed by at most the allowed fraction
+			double below = 0;
+			int threshold = 0;
+			while (threshold < d && below + sums[threshold] <= SUM_OF_HEADS_ERROR) {
+				below += sums[threshold];
+				threshold++;
+			}
+			thresholds[d] = Math.max(threshold, kTupleSize);
+		}
+		return thresholds;
+	}
+
+}
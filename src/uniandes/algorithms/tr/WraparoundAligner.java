@@ -0,0 +1,262 @@
+package uniandes.algorithms.tr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraparound dynamic programming aligner: alligns a segment of the sequence
+ * with the pattern repeated as many times as needed, without building the
+ * repeated pattern. The matrix has one row per character of the segment and
+ * one column per position of the pattern, so the time is O(length x period)
+ * instead of O(length x length). Deleting characters of the pattern moves
+ * along a row and wraps from the last position of the pattern to the first.
+ *
+ * The allignment starts at the beginning of the pattern and of the segment,
+ * covers the whole segment and can end at any position of the repeated
+ * pattern. Its score is the one of TRFCandidateSelector.alignmentScore: each
+ * match adds matchScore and each mismatch or gap subtracts missScore, which
+ * must be positive. The score alone needs two rows; the allignment keeps one
+ * byte per cell for the traceback, at most MAX_TRACEBACK_CELLS of them.
+ * Longer segments are alligned in blocks of rows: the first pass keeps only
+ * the scores of the first row of each block, and the rows of each block are
+ * computed again for its part of the traceback, so the memory stays linear
+ * in the length of the segment. Buffers are reused between calls, so an
+ * aligner must be used by one thread at a time
+ */
+public class WraparoundAligner {
+
+	// largest number of cells of the traceback of an allignment, 4 MB for
+	// each aligner (one per thread); longer segments are alligned in blocks
+	public static final long MAX_TRACEBACK_CELLS = 1L << 22;
+
+	// moves of the traceback
+	private static final byte DIAGONAL = 0;
+	private static final byte UP = 1;
+	private static final byte LEFT = 2;
+
+	private int matchScore;
+
+	private int missScore;
+
+	// scores of the previous and current rows
+	private int[] previous = new int[0];
+	private int[] current = new int[0];
+
+	// move chosen for each cell of the current block of rows, row i starts
+	// at (i - first row of the block) * period
+	private byte[] moves = new byte[0];
+
+	// scores of the first row of each block, block b starts at b * period
+	private int[] checkpoints = new int[0];
+
+	// number of characters of the repeated pattern covered by the last
+	// allignment
+	private int idealLength;
+
+	/**
+	 * @param matchScore
+	 *            added for each match
+	 * @param missScore
+	 *            subtracted for each mismatch or gap, positive
+	 */
+	public WraparoundAligner(int matchScore, int missScore) {
+		if (missScore <= 0) {
+			throw new IllegalArgumentException("Miss score must be positive: " + missScore);
+		}
+		this.matchScore = matchScore;
+		this.missScore = missScore;
+	}
+
+	/**
+	 * Computes the best score of the allignment of segment[from, to) with
+	 * the pattern repeated
+	 *
+	 * @param pattern
+	 * @param period
+	 *            number of characters of the pattern, at least 1
+	 * @param segment
+	 * @param from
+	 * @param to
+	 * @return score of the best allignment
+	 */
+	public int score(byte[] pattern, int period, byte[] segment, int from, int to) {
+		fillFirstRow(period);
+		fillRows(pattern, period, segment, from, 0, to - from, false);
+		int best = Integer.MIN_VALUE;
+		for (int j = 0; j < period; j++) {
+			best = Math.max(best, previous[j]);
+		}
+		return best;
+	}
+
+	/**
+	 * Alligns segment[from, to) with the pattern repeated
+	 *
+	 * @param pattern
+	 * @param period
+	 *            number of characters of the pattern, at least 1
+	 * @param segment
+	 * @param from
+	 * @param to
+	 * @return the allignment: the repeated pattern and the segment with gaps
+	 */
+	public List<CharSequence> align(byte[] pattern, int period, byte[] segment, int from, int to) {
+		int length = to - from;
+		int blockRows = (int) Math.max(1, Math.min(length, MAX_TRACEBACK_CELLS / period - 1));
+		int numBlocks = (length + blockRows - 1) / blockRows;
+		if (moves.length < (long) (blockRows + 1) * period) {
+			moves = new byte[(blockRows + 1) * period];
+		}
+		fillFirstRow(period);
+		if (numBlocks > 1) {
+			if (checkpoints.length < (long) numBlocks * period) {
+				checkpoints = new int[numBlocks * period];
+			}
+			for (int b = 0; b < numBlocks; b++) {
+				System.arraycopy(previous, 0, checkpoints, b * period, period);
+				fillRows(pattern, period, segment, from, b * blockRows, Math.min(length, (b + 1) * blockRows), false);
+			}
+		} else {
+			// one block, the traceback is kept in the first pass
+			fillRows(pattern, period, segment, from, 0, length, true);
+		}
+		int j = 0;
+		for (int k = 1; k < period; k++) {
+			if (previous[k] > previous[j]) {
+				j = k;
+			}
+		}
+		StringBuilder ideal = new StringBuilder();
+		StringBuilder aligned = new StringBuilder();
+		int i = length;
+		idealLength = 0;
+		for (int b = numBlocks - 1; b >= 0; b--) {
+			int startRow = b * blockRows;
+			if (numBlocks > 1) {
+				// moves of the block from the scores of its first row
+				System.arraycopy(checkpoints, b * period, previous, 0, period);
+				fillRows(pattern, period, segment, from, startRow, Math.min(length, startRow + blockRows), true);
+			}
+			while (i > startRow) {
+				byte move = moves[(i - startRow) * period + j];
+				int jPrevious = j == 0 ? period - 1 : j - 1;
+				if (move == DIAGONAL) {
+					ideal.append((char) pattern[jPrevious]);
+					aligned.append((char) segment[from + i - 1]);
+					i--;
+					j = jPrevious;
+					idealLength++;
+				} else if (move == UP) {
+					ideal.append('-');
+					aligned.append((char) segment[from + i - 1]);
+					i--;
+				} else {
+					ideal.append((char) pattern[jPrevious]);
+					aligned.append('-');
+					j = jPrevious;
+					idealLength++;
+				}
+			}
+		}
+		// at the first row only deletions of the pattern are left, back to
+		// its beginning
+		while (j > 0) {
+			ideal.append((char) pattern[j - 1]);
+			aligned.append('-');
+			j--;
+			idealLength++;
+		}
+		List<CharSequence> answer = new ArrayList<CharSequence>(2);
+		answer.add(ideal.reverse().toString());
+		answer.add(aligned.reverse().toString());
+		return answer;
+	}
+
+	/**
+	 * @return number of characters of the repeated pattern covered by the
+	 *         last allignment
+	 */
+	public int getIdealLength() {
+		return idealLength;
+	}
+
+	/**
+	 * Fills the first row of the matrix in previous, deletions of the
+	 * beginning of the pattern
+	 *
+	 * @param period
+	 */
+	private void fillFirstRow(int period) {
+		if (previous.length < period) {
+			previous = new int[period];
+			current = new int[period];
+		}
+		for (int j = 0; j < period; j++) {
+			previous[j] = -j * missScore;
+		}
+	}
+
+	/**
+	 * Fills rows of the matrix from the row in previous, leaving the last one
+	 * in previous. Cell (i, j) is the best score of the allignment of the
+	 * first i characters of the segment with a prefix of the repeated pattern
+	 * whose length modulo the period is j
+	 *
+	 * @param pattern
+	 * @param period
+	 * @param segment
+	 * @param from
+	 * @param startRow
+	 *            row in previous
+	 * @param endRow
+	 *            last row filled
+	 * @param traceback
+	 *            true to keep the moves of each cell, relative to startRow
+	 */
+	private void fillRows(byte[] pattern, int period, byte[] segment, int from, int startRow, int endRow,
+			boolean traceback) {
+		for (int i = startRow + 1; i <= endRow; i++) {
+			byte c = segment[from + i - 1];
+			int row = (i - startRow) * period;
+			// diagonal and gap in the pattern
+			int best = 0;
+			for (int j = 0; j < period; j++) {
+				int jPrevious = j == 0 ? period - 1 : j - 1;
+				int diagonal = previous[jPrevious] + (pattern[jPrevious] == c ? matchScore : -missScore);
+				int up = previous[j] - missScore;
+				if (diagonal >= up) {
+					current[j] = diagonal;
+					if (traceback) {
+						moves[row + j] = DIAGONAL;
+					}
+				} else {
+					current[j] = up;
+					if (traceback) {
+						moves[row + j] = UP;
+					}
+				}
+				if (current[j] > current[best]) {
+					best = j;
+				}
+			}
+			// deletions of the pattern along the row, starting after the
+			// best cell, which can not be improved by going around the row
+			int j = best;
+			for (int k = 1; k < period; k++) {
+				int jNext = j == period - 1 ? 0 : j + 1;
+				int left = current[j] - missScore;
+				if (left > current[jNext]) {
+					current[jNext] = left;
+					if (traceback) {
+						moves[row + jNext] = LEFT;
+					}
+				}
+				j = jNext;
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+	}
+
+}